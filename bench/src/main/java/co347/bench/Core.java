@@ -0,0 +1,105 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+package co347.bench;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/*
+ * The classes under test live in the default package, which code in any
+ * other package cannot name; and JMH will not generate benchmarks in the
+ * default package. So benchmarks reach them through method handles, with
+ * reference types erased to Object (see MethodHandle.invokeExact).
+ *
+ * Handles kept in static final fields are constants to the JIT compiler,
+ * and calls through them are inlined like direct calls.
+ */
+final class Core {
+
+	private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	/* Before Utils reads them: no FaultManager, Metrics or PeriodicPrinter
+	 * in a benchmark's Registrar, which would take ports, write files and
+	 * run alongside what is measured
+	 */
+	static {
+		System.setProperty("co347.services", "false");
+		System.setProperty("co347.metrics.port", "0");
+	}
+
+	private Core () {}
+
+	static Class<?> type (String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(String.format("%s is not on the classpath", name), e);
+		}
+	}
+
+	static MethodHandle constructor (String name, Class<?>... parameters) {
+		try {
+			Constructor<?> c = type(name).getDeclaredConstructor(parameters);
+			c.setAccessible(true);
+			MethodHandle h = lookup.unreflectConstructor(c);
+			return h.asType(h.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(String.format("%s has no such constructor", name), e);
+		}
+	}
+
+	static MethodHandle method (String name, String method, Class<?>... parameters) {
+		try {
+			Method m = type(name).getDeclaredMethod(method, parameters);
+			m.setAccessible(true);
+			MethodHandle h = lookup.unreflect(m);
+			return h.asType(h.type().erase());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(String.format("%s has no method %s()", name, method), e);
+		}
+	}
+
+	/*
+	 * Returns a Registrar for `n` processes, connected as topology() has
+	 * it, with all of them registered; without background services (see
+	 * above), so several may run at once.
+	 */
+	static Object registrar (int n, int degree) throws Throwable {
+		MethodHandle create = constructor("Registrar", int.class, String.class);
+		MethodHandle record = constructor("Record", String.class, String.class, int.class);
+		MethodHandle register = method("Registrar", "registeR", type("Record"));
+		register = register.asType(register.type().changeReturnType(void.class));
+		Object r = (Object) create.invokeExact(n, (Object) topology(n, degree, n));
+		for (int i = 1; i <= n; i++) {
+			Object p = (Object) record.invokeExact((Object) String.format("P%d", i), (Object) "localhost", 6667 + i);
+			register.invokeExact(r, p);
+		}
+		return r;
+	}
+
+	/*
+	 * Writes a connected graph of `V` nodes, as a list of links, where
+	 * each node has about `degree` neighbours: a ring, plus random links
+	 */
+	static String topology (int V, int degree, long seed) throws IOException {
+		Random random = new Random(seed);
+		double p = Math.min(1.0, (double) Math.max(0, degree - 2) / (double) V);
+		File file = File.createTempFile("topology-", ".txt");
+		file.deleteOnExit();
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		for (int u = 1; u <= V; u++) {
+			writer.println(String.format("%d %d", u, (u % V) + 1));
+			for (int v = u + 2; v <= V; v++)
+				if (random.nextDouble() < p)
+					writer.println(String.format("%d %d", u, v));
+		}
+		writer.close();
+		return file.getPath();
+	}
+}
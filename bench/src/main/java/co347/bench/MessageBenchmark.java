@@ -0,0 +1,78 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+package co347.bench;
+
+import java.lang.invoke.*;
+import java.nio.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Message framing, both ways: text (pack/parse), as the Registrar and
+ * processes exchange by default, and binary (encode/decode), as they do
+ * with Utils.BINARY set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+	private static final MethodHandle NEW =
+		Core.constructor("Message", int.class, int.class, String.class, String.class);
+	private static final MethodHandle PACK = Core.method("Message", "pack");
+	private static final MethodHandle PARSE = Core.method("Message", "parse", String.class);
+	private static final MethodHandle ENCODE = Core.method("Message", "encode", ByteBuffer.class);
+	private static final MethodHandle DECODE = Core.method("Message", "decode", ByteBuffer.class);
+
+	/* Payload length, in characters */
+	@Param({ "16", "256" })
+	public int size;
+
+	private Object message;
+	private String packed;
+	private ByteBuffer buffer;
+	private int frame;
+
+	@Setup
+	public void setup () throws Throwable {
+		StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < size; i++)
+			payload.append((char) ('a' + i % 26));
+		message = (Object) NEW.invokeExact(1, 2, (Object) "TEST", (Object) payload.toString());
+		packed = (String) (Object) PACK.invokeExact(message);
+		buffer = ByteBuffer.allocate(64 * 1024);
+		ENCODE.invokeExact(message, (Object) buffer);
+		frame = buffer.position();
+	}
+
+	@Benchmark
+	public Object pack () throws Throwable {
+		return (Object) PACK.invokeExact(message);
+	}
+
+	@Benchmark
+	public Object parse () throws Throwable {
+		return (Object) PARSE.invokeExact((Object) packed);
+	}
+
+	@Benchmark
+	public int encode () throws Throwable {
+		buffer.clear();
+		ENCODE.invokeExact(message, (Object) buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	public Object decode () throws Throwable {
+		buffer.clear().limit(frame);
+		return (Object) DECODE.invokeExact((Object) buffer);
+	}
+}
@@ -0,0 +1,75 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+package co347.bench;
+
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * MessageEntry objects in and out of a Record's queue (see DeliveryQueue):
+ * one at a time, as the DelayScheduler and a MessageHandler hand them over
+ * when traffic is light; and in bursts, drained in one go, as when it is
+ * heavy (see Worker.MessageHandler.write).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+	private static final Class<?> FRAME = Core.type("Frame");
+
+	private static final MethodHandle RECORD =
+		Core.constructor("Record", String.class, String.class, int.class);
+	private static final MethodHandle ENTRY =
+		Core.constructor("MessageEntry", FRAME, int.class, int.class, long.class);
+	private static final MethodHandle GET_QUEUE = Core.method("Record", "getQueue");
+	private static final MethodHandle PUT = Core.method("Record", "put", Core.type("MessageEntry"));
+	private static final MethodHandle POLL = Core.method("DeliveryQueue", "poll");
+	private static final MethodHandle DRAIN =
+		Core.method("DeliveryQueue", "drainTo", Collection.class, int.class);
+
+	/* Messages put before they are drained */
+	private static final int BURST = 64;
+
+	private Object record;
+	private Object queue;
+	/* The same entries, over and over; priorities vary, as they would */
+	private Object [] entries;
+	private ArrayList<Object> drained;
+
+	@Setup
+	public void setup () throws Throwable {
+		record = (Object) RECORD.invokeExact((Object) "P1", (Object) "localhost", 6668);
+		queue = (Object) GET_QUEUE.invokeExact(record);
+		int [] priorities = { 1, 2, 0xff, 0xff };
+		entries = new Object[BURST];
+		for (int i = 0; i < BURST; i++)
+			entries[i] = (Object) ENTRY.invokeExact((Object) null, 1, priorities[i % priorities.length], 0L);
+		drained = new ArrayList<Object>(BURST);
+	}
+
+	@Benchmark
+	public Object putPoll () throws Throwable {
+		PUT.invokeExact(record, entries[0]);
+		return (Object) POLL.invokeExact(queue);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public int putDrain () throws Throwable {
+		for (int i = 0; i < entries.length; i++)
+			PUT.invokeExact(record, entries[i]);
+		drained.clear();
+		return (int) DRAIN.invokeExact(queue, (Object) drained, entries.length);
+	}
+}
@@ -0,0 +1,89 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+package co347.bench;
+
+import java.lang.invoke.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * The Registrar's lookups and counters, which every relayed message goes
+ * through: find() for its source and destination, by pid or by name, and
+ * its Traffic counters: getType() once, and count() for each link.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrarBenchmark {
+
+	private static final MethodHandle FIND = Core.method("Registrar", "find", int.class);
+	private static final MethodHandle FIND_NAME = Core.method("Registrar", "find", String.class);
+	private static final MethodHandle GET_TRAFFIC = Core.method("Registrar", "getTraffic");
+	private static final MethodHandle GET_TYPE = Core.method("Traffic", "getType", String.class);
+	private static final MethodHandle COUNT = Core.method("Traffic", "count",
+		int.class, int.class, int.class, int.class);
+
+	private static final String [] TYPES = { "TEST", "heartbeat", "mydist", "open", "closed" };
+
+	@Param({ "100", "1000" })
+	public int n;
+
+	private Object registrar;
+	private Object traffic;
+	private String [] names;
+	private int [] columns;
+
+	@Setup
+	public void setup () throws Throwable {
+		registrar = Core.registrar(n, 4);
+		names = new String[n + 1];
+		for (int i = 1; i <= n; i++)
+			names[i] = String.format("P%d", i);
+		traffic = (Object) GET_TRAFFIC.invokeExact(registrar);
+		columns = new int[TYPES.length];
+		for (int i = 0; i < TYPES.length; i++)
+			columns[i] = (int) GET_TYPE.invokeExact(traffic, (Object) TYPES[i]);
+	}
+
+	/* Walks through all pids, so lookups do not always hit the same entry */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next = 0;
+
+		int next (int n) {
+			next = (next % n) + 1;
+			return next;
+		}
+	}
+
+	@Benchmark
+	public Object find (Cursor c) throws Throwable {
+		return (Object) FIND.invokeExact(registrar, c.next(n));
+	}
+
+	@Benchmark
+	public Object findByName (Cursor c) throws Throwable {
+		return (Object) FIND_NAME.invokeExact(registrar, (Object) names[c.next(n)]);
+	}
+
+	@Benchmark
+	public int getType (Cursor c) throws Throwable {
+		return (int) GET_TYPE.invokeExact(traffic, (Object) TYPES[c.next(n) % TYPES.length]);
+	}
+
+	/* Over the ring's links, P(i) to P(i + 1), which topology() always has */
+	@Benchmark
+	public void count (Cursor c) throws Throwable {
+		int i = c.next(n);
+		COUNT.invokeExact(traffic, i, (i % n) + 1, columns[i % TYPES.length], 64);
+	}
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+package co347.bench;
+
+import java.lang.invoke.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Relay.deliver() (formerly Worker.deliver): the fan-out of one message to
+ * each of its source's neighbours, from the neighbour check to the entry
+ * queued at the DelayScheduler. A background thread drains what comes out
+ * of the scheduler, as MessageHandlers would, so queues stay short.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayBenchmark {
+
+	private static final MethodHandle RELAY = Core.constructor("Relay", Core.type("Registrar"));
+	private static final MethodHandle SET_PROCESS = Core.method("Relay", "setProcess", int.class);
+	private static final MethodHandle DELIVER = Core.method("Relay", "deliver", Core.type("Message"));
+	private static final MethodHandle MESSAGE =
+		Core.constructor("Message", int.class, int.class, String.class, String.class);
+	private static final MethodHandle FIND = Core.method("Registrar", "find", int.class);
+	private static final MethodHandle GET_QUEUE = Core.method("Record", "getQueue");
+	private static final MethodHandle POLL = Core.method("DeliveryQueue", "poll");
+
+	private static final int N = 100;
+
+	/* Neighbours per process; N or more for a full mesh */
+	@Param({ "2", "8", "100" })
+	public int degree;
+
+	private Object relay;
+	private Object broadcast;
+	private Object unicast;
+
+	private volatile boolean running;
+	private Thread drainer;
+
+	@Setup
+	public void setup () throws Throwable {
+		Object registrar = Core.registrar(N, degree);
+		relay = (Object) RELAY.invokeExact(registrar);
+		SET_PROCESS.invokeExact(relay, 1);
+		broadcast = (Object) MESSAGE.invokeExact(1, -1, (Object) "TEST", (Object) "1234567890");
+		/* P1 and P2 are always neighbours (see Core.topology) */
+		unicast = (Object) MESSAGE.invokeExact(1, 2, (Object) "TEST", (Object) "1234567890");
+
+		Object [] queues = new Object[N];
+		for (int i = 0; i < N; i++)
+			queues[i] = (Object) GET_QUEUE.invokeExact((Object) FIND.invokeExact(registrar, i + 1));
+		running = true;
+		drainer = new Thread(() -> {
+			try {
+				while (running) {
+					boolean idle = true;
+					for (Object q: queues)
+						while ((Object) POLL.invokeExact(q) != null)
+							idle = false;
+					if (idle)
+						Thread.sleep(1);
+				}
+			} catch (Throwable ignored) {}
+		}, "Drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	@TearDown
+	public void tearDown () throws InterruptedException {
+		running = false;
+		drainer.join();
+	}
+
+	@Benchmark
+	public void broadcast () throws Throwable {
+		DELIVER.invokeExact(relay, broadcast);
+	}
+
+	@Benchmark
+	public void unicast () throws Throwable {
+		DELIVER.invokeExact(relay, unicast);
+	}
+}
@@ -0,0 +1,86 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+package co347.bench;
+
+import java.lang.invoke.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * The routing oracle on generated topologies of increasing size: a full
+ * recomputation (reset), and the incremental updates that follow a
+ * process failure (remove) and its recovery (repair). Each of the latter
+ * is undone, outside the measurement, after every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingOracleBenchmark {
+
+	private static final MethodHandle ORACLE =
+		Core.constructor("RoutingOracle", int.class, String.class);
+	private static final MethodHandle RESET = Core.method("RoutingOracle", "reset");
+	private static final MethodHandle REMOVE = Core.method("RoutingOracle", "remove", int.class);
+	private static final MethodHandle REPAIR = Core.method("RoutingOracle", "repair", int.class);
+
+	@State(Scope.Thread)
+	public static class Graph {
+
+		@Param({ "250", "500", "1000", "2000" })
+		public int V;
+
+		/* Neighbours per node, on average */
+		@Param({ "8" })
+		public int degree;
+
+		Object oracle;
+		int w;
+
+		@Setup(Level.Trial)
+		public void setup () throws Throwable {
+			oracle = (Object) ORACLE.invokeExact(V, (Object) Core.topology(V, degree, V));
+			RESET.invoke(oracle);
+			w = V / 2;
+		}
+	}
+
+	/* Repaired after each remove() */
+	public static class Up extends Graph {
+
+		@TearDown(Level.Invocation)
+		public void repair () throws Throwable {
+			REPAIR.invoke(oracle, w);
+		}
+	}
+
+	/* Removed before each repair() */
+	public static class Down extends Graph {
+
+		@Setup(Level.Invocation)
+		public void remove () throws Throwable {
+			REMOVE.invoke(oracle, w);
+		}
+	}
+
+	@Benchmark
+	public boolean reset (Graph g) throws Throwable {
+		return (boolean) RESET.invokeExact(g.oracle);
+	}
+
+	@Benchmark
+	public boolean remove (Up g) throws Throwable {
+		return (boolean) REMOVE.invokeExact(g.oracle, g.w);
+	}
+
+	@Benchmark
+	public boolean repair (Down g) throws Throwable {
+		return (boolean) REPAIR.invokeExact(g.oracle, g.w);
+	}
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.*;
+
+/*
+ * How long to wait before retrying a connection: exponentially longer,
+ * from MIN up to MAX msec, with random jitter so that many clients that
+ * fail together do not retry together. Failures are reported sparingly
+ * (see failed), since a few are expected while a cluster starts up.
+ */
+public class Backoff {
+
+	private static final int MIN = 1;    /* msec */
+	private static final int MAX = 1000; /* msec */
+
+	/* The first failure reported; and every time the count doubles after */
+	private static final int QUIET = 8;
+
+	private Random random;
+	private int attempts;
+	private int delay;
+
+	public Backoff () {
+		random = new Random();
+		attempts = 0;
+		delay = MIN;
+	}
+
+	public int getAttempts () { return attempts; }
+
+	/*
+	 * Records a failed attempt to reach `target` and returns how long to
+	 * wait (msec) before the next one
+	 */
+	public int failed (String target, Exception e) {
+		attempts ++;
+		if (attempts >= QUIET && Integer.bitCount(attempts) == 1) {
+			System.err.println(String.format("Warning: %d connection attempts to %s failed.",
+				attempts, target));
+			System.err.println(e.getMessage());
+		}
+		/* Anywhere in [delay/2, delay] */
+		int wait = delay / 2 + random.nextInt(delay / 2 + 1);
+		delay = Math.min(MAX, delay * 2);
+		return Math.max(MIN, wait);
+	}
+
+	/* As failed(), but waits */
+	public void pause (String target, Exception e) {
+		try {
+			Thread.sleep(failed(target, e));
+		} catch (InterruptedException ignored) {}
+	}
+}
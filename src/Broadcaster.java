@@ -32,11 +32,12 @@ class Broadcaster extends Process {
 	private void begin () {
 		long t__send, dt;
 		double rate;
-		_t_send = System.currentTimeMillis();
+		_t_send = now();
 		while (++times <= Utils.MAX) {
-			broadcast("TEST", String.format("%d", System.currentTimeMillis()));
+			/* Keep up to Utils.WINDOW broadcasts in flight */
+			broadcastAsync("TEST", String.format("%d", now()));
 			if (times % Utils.STEP == 0) {
-				t__send = System.currentTimeMillis();
+				t__send = now();
 				dt = t__send - _t_send;
 				if (dt > 0)
 					rate = (double) (Utils.STEP * 1000) / (double) dt;
@@ -55,13 +56,13 @@ class Broadcaster extends Process {
 		double average, deviation;
 		count += 1;
 		if (count == 1)
-			_t_recv = System.currentTimeMillis();
-		d = (System.currentTimeMillis() - Long.parseLong(m.getPayload()));
+			_t_recv = now();
+		d = (now() - Long.parseLong(m.getPayload()));
 		/* Accumulate */
 		delay += d;
-		delaysquared += (double) (d * d);
+		delaysquared += (double) d * (double) d;
 		if (count % Utils.STEP == 0) {
-			t__recv = System.currentTimeMillis();
+			t__recv = now();
 			dt = t__recv - _t_recv;
 			if (dt > 0)
 				rate = (double) (Utils.STEP * 1000) / (double) dt;
@@ -71,7 +72,7 @@ class Broadcaster extends Process {
 			average = (double) delay / (double) Utils.STEP;
 			/* Calculate std deviation */
 			deviation = Math.sqrt(
-				(delaysquared - (double) (delay * delay) / (double) Utils.STEP) / (double) (Utils.STEP - 1)
+				(delaysquared - (double) delay * (double) delay / (double) Utils.STEP) / (double) (Utils.STEP - 1)
 			);
 			Utils.out(pid, 
 				String.format(
@@ -0,0 +1,80 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Models link delay. Relayed messages are held here until they are due,
+ * and are then released into their destination's queue. Workers hand
+ * messages over and return immediately; nobody sleeps on a socket.
+ */
+public class DelayScheduler extends Thread {
+
+	/* Messages in flight, ordered by the time they are due */
+	private DelayQueue<Delivery> queue;
+
+	/* Breaks ties between messages that are due at the same time */
+	private AtomicLong sequence;
+
+	public DelayScheduler () {
+		queue = new DelayQueue<Delivery>();
+		sequence = new AtomicLong(0);
+		setDaemon(true);
+	}
+
+	/* Releases `entry` into `destination`'s queue at time `due` (nsec) */
+	public void schedule (Record destination, MessageEntry entry, long due) {
+		queue.put(new Delivery(destination, entry, due, sequence.incrementAndGet()));
+	}
+
+	public int size () {
+		return queue.size();
+	}
+
+	public void run () {
+		Delivery d;
+		for (;;) {
+			try {
+				d = queue.take();
+			} catch (InterruptedException ignored) {
+				continue;
+			}
+			d.getDestination().put(d.getEntry());
+		}
+	}
+
+	static class Delivery implements Delayed {
+
+		private Record destination;
+		private MessageEntry entry;
+
+		private long due; /* System.nanoTime() */
+		private long sequence;
+
+		public Delivery (Record destination, MessageEntry entry, long due, long sequence) {
+			this.destination = destination;
+			this.entry = entry;
+			this.due = due;
+			this.sequence = sequence;
+		}
+
+		public Record getDestination () { return destination; }
+		public MessageEntry getEntry () { return entry; }
+
+		public long getDelay (TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo (Delayed o) {
+			Delivery d = (Delivery) o;
+			if (due != d.due)
+				return (due - d.due < 0) ? -1 : 1;
+			/* Same due time; first come, first served */
+			return (sequence < d.sequence) ? -1 : ((sequence == d.sequence) ? 0 : 1);
+		}
+	}
+}
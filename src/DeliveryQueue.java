@@ -0,0 +1,234 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/*
+ * Messages awaiting delivery to one process, in order of priority (see
+ * Utils.getPriority) and, within a priority, in the order they were put.
+ *
+ * There is one lane per priority, each an unbounded lock-free queue with
+ * many producers (Workers, the DelayScheduler) and a single consumer (the
+ * process's MessageHandler or Outbox); and a bitmap of the lanes that may
+ * be non-empty, so that the consumer finds the next message without
+ * scanning them all. Priorities of LANES - 1 or more share the last lane.
+ */
+public class DeliveryQueue {
+
+	private static final int LANES = 8;
+
+	private Lane [] lanes;
+
+	/* Bit i is set if lane i may be non-empty. It is set by producers after
+	 * a message is linked into the lane, and cleared by the consumer before
+	 * it checks the lane again; so no message goes unnoticed.
+	 */
+	private AtomicInteger bitmap;
+
+	/* The consumer, if it is blocked in take(); whoever takes it out 
+	 * wakes it up, so it is woken up once per wait
+	 */
+	private AtomicReference<Thread> waiter;
+
+	/* size() = added - removed; producers do not contend on a counter */
+	private LongAdder added;
+	private volatile long removed;
+
+	public DeliveryQueue () {
+		lanes = new Lane[LANES];
+		for (int i = 0; i < LANES; i++)
+			lanes[i] = new Lane();
+		bitmap = new AtomicInteger(0);
+		waiter = new AtomicReference<Thread>(null);
+		added = new LongAdder();
+		removed = 0;
+	}
+
+	private static int lane (int priority) {
+		return (priority < 0 || priority >= LANES) ? LANES - 1 : priority;
+	}
+
+	/* Safe to call from any thread */
+	public void put (MessageEntry entry) {
+		int i = lane(entry.getPriority());
+		lanes[i].offer(entry);
+		added.increment();
+		int mask = 1 << i;
+		if ((bitmap.get() & mask) == 0)
+			bitmap.getAndUpdate(x -> x | mask);
+		Thread w = waiter.get();
+		if (w != null && waiter.compareAndSet(w, null))
+			LockSupport.unpark(w);
+	}
+
+	/* The rest may only be called by the consumer */
+
+	public MessageEntry poll () {
+		int bits;
+		while ((bits = bitmap.get()) != 0) {
+			int i = Integer.numberOfTrailingZeros(bits);
+			MessageEntry entry = lanes[i].poll();
+			if (entry != null) {
+				removed = removed + 1;
+				return entry;
+			}
+			/* Lane i looks empty; clear its bit, then look again */
+			int mask = 1 << i;
+			bitmap.getAndUpdate(x -> x & ~mask);
+			if (! lanes[i].isEmpty())
+				bitmap.getAndUpdate(x -> x | mask);
+		}
+		return null;
+	}
+
+	public MessageEntry take () throws InterruptedException {
+		MessageEntry entry;
+		for (;;) {
+			if ((entry = poll()) != null)
+				return entry;
+			Thread self = Thread.currentThread();
+			waiter.set(self);
+			/* A put() after the poll() above either sees `waiter`, or
+			 * its message is seen by the poll() below.
+			 */
+			if ((entry = poll()) != null) {
+				waiter.compareAndSet(self, null);
+				return entry;
+			}
+			while (waiter.get() == self && ! self.isInterrupted())
+				LockSupport.park(this);
+			waiter.compareAndSet(self, null);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	/* Moves up to `max` messages, in order, into `c`; returns how many */
+	public int drainTo (Collection<? super MessageEntry> c, int max) {
+		int count = 0;
+		MessageEntry entry;
+		while (count < max && (entry = poll()) != null) {
+			c.add(entry);
+			count ++;
+		}
+		return count;
+	}
+
+	public boolean isEmpty () {
+		return (bitmap.get() == 0);
+	}
+
+	/* May be called by any thread; approximate while messages are put */
+	public int size () {
+		return (int) Math.max(0, added.sum() - removed);
+	}
+	
+	/* Messages ever put; may be called by any thread */
+	public long getTotal () {
+		return added.sum();
+	}
+
+	/*
+	 * D. Vyukov's intrusive MPSC queue: producers swap themselves in as the
+	 * head with one atomic exchange, then link the previous head to them.
+	 * Until they do, the consumer sees the lane as empty at that point.
+	 */
+	static class Lane {
+
+		private AtomicReference<Node> head; /* Last in */
+		private Node tail; /* Consumer-owned; its successor is first out */
+
+		Lane () {
+			Node stub = new Node(null);
+			head = new AtomicReference<Node>(stub);
+			tail = stub;
+		}
+
+		void offer (MessageEntry entry) {
+			Node node = new Node(entry);
+			Node previous = head.getAndSet(node);
+			previous.next = node;
+		}
+
+		MessageEntry poll () {
+			Node next = tail.next;
+			if (next == null)
+				return null;
+			MessageEntry entry = next.entry;
+			next.entry = null; /* The new stub; let the entry go */
+			tail = next;
+			return entry;
+		}
+
+		boolean isEmpty () {
+			return (tail.next == null);
+		}
+	}
+
+	static class Node {
+
+		MessageEntry entry;
+		volatile Node next;
+
+		Node (MessageEntry entry) {
+			this.entry = entry;
+		}
+	}
+
+	/* Unit tests */
+	public static void main (String [] args) throws Exception {
+		final DeliveryQueue q = new DeliveryQueue();
+		final int producers = 4, count = 100000;
+		final int [] priorities = { 1, 2, 3, 4, 0xff };
+		Thread [] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			threads[p] = new Thread(() -> {
+				for (int i = 0; i < count; i++) {
+					/* The destination field carries (producer, sequence number) */
+					int priority = priorities[i % priorities.length];
+					q.put(new MessageEntry(null, id * count + i, priority, 0));
+				}
+			});
+		}
+		for (Thread t: threads)
+			t.start();
+		/* FIFO per producer and priority */
+		int [][] last = new int[producers][LANES];
+		for (int [] l: last)
+			Arrays.fill(l, -1);
+		for (int n = 0; n < producers * count; n++) {
+			MessageEntry e = q.take();
+			int id = e.getDestination() / count, i = e.getDestination() % count;
+			int lane = lane(e.getPriority());
+			if (i <= last[id][lane]) {
+				System.err.println("Error: out of order");
+				return;
+			}
+			last[id][lane] = i;
+		}
+		for (Thread t: threads)
+			t.join();
+		if (q.poll() != null || q.size() != 0 || ! q.isEmpty()) {
+			System.err.println("Error: not empty");
+			return;
+		}
+		/* Priority order, once all are in */
+		for (int i = 0; i < 10; i++)
+			q.put(new MessageEntry(null, i, priorities[(7 * i) % priorities.length], 0));
+		ArrayList<MessageEntry> drained = new ArrayList<MessageEntry>();
+		q.drainTo(drained, 100);
+		for (int i = 1; i < drained.size(); i++) {
+			if (drained.get(i - 1).getPriority() > drained.get(i).getPriority()) {
+				System.err.println("Error: priorities out of order");
+				return;
+			}
+		}
+		System.out.println(String.format("OK (%d drained)", drained.size()));
+	}
+}
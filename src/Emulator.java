@@ -0,0 +1,97 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.lang.reflect.*;
+
+/*
+ * Runs the Registrar and all n processes in one JVM, e.g.
+ *
+ * java Emulator Broadcaster 10 networks/mesh-10.txt
+ *
+ * Each process runs its class's main(), with the same arguments as
+ * sysmanager.sh would give it, on a thread of its own. Processes hand
+ * messages to the Registrar, and it delivers them, in memory (see
+ * Process.registerLocally); neighbours, faults and link delays are
+ * as usual. The FaultManager still listens for a FaultInjector.
+ */
+public class Emulator {
+
+	private static volatile Registrar registrar = null;
+
+	public static boolean isRunning () { return (registrar != null); }
+
+	public static Registrar getRegistrar () { return registrar; }
+
+	/* Returns the main() of class `name`; or exits */
+	static Method getMain (String name) {
+		Method main = null;
+		try {
+			main = Class.forName(name).getMethod("main", String [].class);
+		} catch (ReflectiveOperationException e) {
+			System.err.println(String.format("Error: %s has no main().", name));
+			System.exit(1);
+		}
+		return main;
+	}
+
+	/*
+	 * Returns a task that runs `main` as P<i>, with arguments P<i> <i> <n>
+	 * and then any extra ones, [class] [#instances] [topology] [args...]
+	 * being `args`
+	 */
+	static Runnable getTask (Method main, String [] args, int i) {
+		String [] a = new String[args.length];
+		a[0] = String.format("P%d", i);
+		a[1] = String.valueOf(i);
+		a[2] = args[1];
+		System.arraycopy(args, 3, a, 3, args.length - 3);
+		return () -> {
+			try {
+				main.invoke(null, (Object) a);
+			} catch (InvocationTargetException e) {
+				System.err.println(String.format("Error: %s has failed.", a[0]));
+				e.getCause().printStackTrace();
+				System.exit(1);
+			} catch (IllegalAccessException e) {
+				System.err.println(String.format("Error: cannot run %s.main().", args[0]));
+				System.exit(1);
+			}
+		};
+	}
+
+	public static void main (String [] args) {
+
+		if (args.length < 3) {
+			System.err.println("usage: java Emulator [class] [#instances] [topology] [args...]");
+			System.exit(1);
+		}
+
+		Method main = getMain(args[0]);
+
+		int n = Integer.parseInt(args[1]);
+		String filename = args[2];
+
+		if (! (new File(filename).isFile())) {
+			System.err.println(String.format("Error: %s does not exist.",
+				filename));
+			System.exit(1);
+		}
+
+		registrar = new Registrar(n, filename);
+		Utils.out(registrar.pid, String.format("Emulator started; n = %d.", n));
+
+		for (int i = 1; i <= n; i++)
+			Threads.start(String.format("P%d", i), getTask(main, args, i), true);
+
+		/* Processes run on daemon threads; keep the JVM alive */
+		for (;;) {
+			try {
+				Thread.sleep(Long.MAX_VALUE);
+			} catch (InterruptedException ignored) {}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * A single-threaded selector loop. When Utils.NIO is set, the Registrar
+ * runs a small pool of these (about one per core) instead of two threads
+ * per process; see Session and Outbox.
+ */
+public class EventLoop extends Thread {
+
+	/* Reacts to channel events; always called on the loop's thread */
+	public interface Handler {
+		void handle (SelectionKey key) throws IOException;
+	}
+
+	private Selector selector;
+
+	/* Tasks submitted by other threads */
+	private ConcurrentLinkedQueue<Runnable> tasks;
+
+	/* Delayed tasks, e.g. connection retries; owned by the loop */
+	private PriorityQueue<Timer> timers;
+	private long sequence;
+
+	public EventLoop (int id) throws IOException {
+		super(String.format("EventLoop-%d", id));
+		selector = Selector.open();
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		timers = new PriorityQueue<Timer>();
+		sequence = 0;
+		setDaemon(true);
+	}
+
+	/* Runs `task` on the loop's thread; safe to call from any thread */
+	public void execute (Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != this)
+			selector.wakeup();
+	}
+
+	/* Runs `task` on the loop's thread after `delay` msec */
+	public void schedule (Runnable task, long delay) {
+		long due = System.currentTimeMillis() + delay;
+		if (Thread.currentThread() != this) {
+			execute(() -> timers.add(new Timer(task, due, sequence++)));
+			return ;
+		}
+		timers.add(new Timer(task, due, sequence++));
+	}
+
+	public SelectionKey register (SelectableChannel channel, int ops, Handler handler)
+		throws IOException {
+		channel.configureBlocking(false);
+		return channel.register(selector, ops, handler);
+	}
+
+	private long getTimeout () {
+		Timer t = timers.peek();
+		if (t == null)
+			return 0; /* Block until woken up */
+		long timeout = t.due - System.currentTimeMillis();
+		return (timeout <= 0) ? -1 : timeout;
+	}
+
+	public void run () {
+		Runnable task;
+		long timeout;
+		for (;;) {
+			try {
+				timeout = getTimeout();
+				if (! tasks.isEmpty() || timeout < 0)
+					selector.selectNow();
+				else
+					selector.select(timeout);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (! key.isValid())
+						continue;
+					((Handler) key.attachment()).handle(key);
+				}
+
+				while ((task = tasks.poll()) != null)
+					task.run();
+
+				long now = System.currentTimeMillis();
+				while (! timers.isEmpty() && timers.peek().due <= now)
+					timers.poll().task.run();
+
+			} catch (IOException e) {
+				System.err.println(String.format("Error: %s has failed.", getName()));
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+		}
+	}
+
+	static class Timer implements Comparable<Timer> {
+
+		Runnable task;
+		long due;
+		long sequence;
+
+		Timer (Runnable task, long due, long sequence) {
+			this.task = task;
+			this.due = due;
+			this.sequence = sequence;
+		}
+
+		public int compareTo (Timer t) {
+			if (due != t.due)
+				return (due < t.due) ? -1 : 1;
+			return (sequence < t.sequence) ? -1 : ((sequence == t.sequence) ? 0 : 1);
+		}
+	}
+}
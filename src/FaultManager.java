@@ -8,11 +8,12 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
-public class FaultManager extends Thread {
+public class FaultManager implements Runnable {
 	
 	private Registrar r;
 	
 	private String key;
+	private String peer; /* Set if the command is about link <key, peer> */
 	private boolean value;
 	private String ticket;
 	
@@ -21,6 +22,7 @@ public class FaultManager extends Thread {
 		
 		/* See this.parse(msg) */
 		key = null;
+		peer = null;
 		value = false;
 	}
 	
@@ -30,12 +32,21 @@ public class FaultManager extends Thread {
 		if (tokens.countTokens() != 2)
 			return false;
 		String process = tokens.nextToken();
+		String other = null;
+		int c = process.indexOf(':');
+		if (c >= 0) { /* A link, of the form `P1:P2` */
+			other = process.substring(c + 1);
+			process = process.substring(0, c);
+			if (! r.contains(other))
+				return false;
+		}
 		if (! r.contains(process))
 			return false;
 		String action = tokens.nextToken();
 		if (! (action.equals("ON") || action.equals("OFF")))
 			return false;
 		key = process;
+		peer = other;
 		value = ((action.equals("ON")) ? false : true);
 		return true;
 	}
@@ -76,12 +87,24 @@ public class FaultManager extends Thread {
 				b = new BufferedReader(input);
 				p = new PrintWriter(s.getOutputStream());
 				while ((message = b.readLine()) != null) {
+					/* Check all posted routing tables (see Process.checkTable) */
+					if (message.trim().equals("CHECK")) {
+						p.println(r.verify());
+						p.flush();
+						continue;
+					}
 					/* Handle FaultInjector's command */
 					if (! parse(message)) {
-						p.println("E.g. usage: P1<|>ON; P2<|>OFF; etc.");
+						p.println("E.g. usage: P1<|>ON; P2<|>OFF; P1:P2<|>OFF; CHECK; etc.");
 						p.flush();
 						continue;			
 					}
+					if (peer != null) {
+						/* Update link status */
+						p.println(r.updateLink(key, peer, value) ? "OK" : "ERR");
+						p.flush();
+						continue;
+					}
 					/* Search registry */
 					Record record = r.find(key);
 					/* Update process status */
@@ -0,0 +1,109 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+/*
+ * A relayed message, encoded once and shared by every destination it
+ * is queued for. The destination is not part of it; it is filled in
+ * as the frame is written (see MessageEntry).
+ */
+public class Frame {
+
+	private final int source;
+	private final String type;
+	private final String payload;
+
+	/* Encoded lazily, since destinations may use either framing */
+	private volatile byte [] binary; /* See Message.encode(); destination is 0 */
+	private volatile byte [] head;   /* Text; `source<|>` */
+	private volatile byte [] tail;   /* Text; `<|>type<|>payload<|>` */
+
+	public Frame (Message m) {
+		source  = m.getSource();
+		type    = m.getType();
+		payload = m.getPayload();
+	}
+
+	public int getSource () { return source; }
+	public String getType () { return type; }
+	public String getPayload () { return payload; }
+
+	private byte [] getBinary () {
+		byte [] b = binary;
+		if (b == null)
+			binary = b = new Message(source, 0, type, payload).encode();
+		return b;
+	}
+
+	private void encodeText () {
+		String s = String.valueOf(source) + Utils.SEPARATOR;
+		String t = Utils.SEPARATOR + type + Utils.SEPARATOR + payload + Utils.SEPARATOR;
+		tail = t.getBytes(StandardCharsets.UTF_8);
+		head = s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/* Number of bytes write() produces; text frames end with a newline */
+	public int getSize (int destination, boolean binary) {
+		if (binary)
+			return getBinary().length;
+		if (head == null)
+			encodeText();
+		return head.length + digits(destination) + tail.length + 1;
+	}
+
+	private static int digits (int x) {
+		return Integer.toString(x).length();
+	}
+
+	public void write (OutputStream out, int destination, boolean binary) throws IOException {
+		if (binary) {
+			byte [] b = getBinary();
+			out.write(b, 0, 8);
+			out.write(destination >>> 24);
+			out.write(destination >>> 16);
+			out.write(destination >>>  8);
+			out.write(destination);
+			out.write(b, 12, b.length - 12);
+			return ;
+		}
+		if (head == null)
+			encodeText();
+		out.write(head);
+		out.write(Integer.toString(destination).getBytes(StandardCharsets.UTF_8));
+		out.write(tail);
+		out.write('\n');
+	}
+
+	/* Same as write(); `buffer` must have getSize() bytes left */
+	public void put (ByteBuffer buffer, int destination, boolean binary) {
+		if (binary) {
+			byte [] b = getBinary();
+			buffer.put(b, 0, 8);
+			buffer.putInt(destination);
+			buffer.put(b, 12, b.length - 12);
+			return ;
+		}
+		if (head == null)
+			encodeText();
+		buffer.put(head);
+		buffer.put(Integer.toString(destination).getBytes(StandardCharsets.UTF_8));
+		buffer.put(tail);
+		buffer.put((byte) '\n');
+	}
+
+	public byte [] toBytes (int destination, boolean binary) {
+		ByteBuffer buffer = ByteBuffer.allocate(getSize(destination, binary));
+		put(buffer, destination, binary);
+		return buffer.array();
+	}
+
+	public Message toMessage (int destination) {
+		return new Message(source, destination, type, payload);
+	}
+}
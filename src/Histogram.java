@@ -0,0 +1,157 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.*;
+
+/*
+ * Counts non-negative values (e.g. latencies in nsec) in log-linear
+ * buckets, after HdrHistogram: values below 2 * SUB are counted exactly,
+ * and each power of two above is split into SUB buckets; so a value is
+ * known to within 1/SUB (under 1%) of itself, over the whole range of
+ * a long, in a fixed (64 - BITS) * SUB counters.
+ *
+ * Not thread-safe; callers synchronise.
+ */
+public class Histogram {
+
+	private static final int BITS = 7;
+	private static final int SUB = 1 << BITS;
+
+	private long [] counts;
+	private long count;
+	private long min;
+	private long max;
+	private double sum;
+
+	public Histogram () {
+		counts = new long[(64 - BITS) * SUB];
+		reset();
+	}
+
+	public void reset () {
+		Arrays.fill(counts, 0);
+		count = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+		sum = 0;
+	}
+
+	private static int index (long v) {
+		if (v < 2 * SUB)
+			return (int) v;
+		int e = 63 - Long.numberOfLeadingZeros(v); /* 2^e <= v < 2^(e+1) */
+		int s = (int) (v >>> (e - BITS)); /* In [SUB, 2 * SUB) */
+		return (e - BITS + 1) * SUB + (s - SUB);
+	}
+
+	/* The largest value counted in bucket `i` */
+	private static long highest (int i) {
+		if (i < 2 * SUB)
+			return i;
+		int e = i / SUB + BITS - 1;
+		long s = (i % SUB) + SUB;
+		return ((s + 1) << (e - BITS)) - 1;
+	}
+
+	/* Negative values (e.g. from clocks that disagree) count as 0 */
+	public void record (long v) {
+		if (v < 0)
+			v = 0;
+		counts[index(v)] ++;
+		count ++;
+		sum += v;
+		if (v < min)
+			min = v;
+		if (v > max)
+			max = v;
+	}
+
+	public void add (Histogram h) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += h.counts[i];
+		count += h.count;
+		sum += h.sum;
+		min = Math.min(min, h.min);
+		max = Math.max(max, h.max);
+	}
+
+	public long getCount () { return count; }
+
+	public long getMin () { return (count == 0) ? 0 : min; }
+
+	public long getMax () { return max; }
+
+	public double getMean () { return (count == 0) ? 0 : sum / count; }
+
+	/*
+	 * The value that `percentile` percent of values are at or below, to
+	 * within the precision of its bucket; never more than getMax()
+	 */
+	public long getValueAtPercentile (double percentile) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count);
+		rank = Math.max(1, rank);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highest(i), max);
+		}
+		return max;
+	}
+
+	/* Unit tests */
+	public static void main (String [] args) {
+		Random random = new Random(1);
+		Histogram h = new Histogram();
+		int n = 1000000;
+		long [] values = new long[n];
+		for (int i = 0; i < n; i++) {
+			/* Exponential, mean 1 msec, with a long tail */
+			values[i] = (long) (-Math.log(1 - random.nextDouble()) * 1e6);
+			if (i % 1000 == 0)
+				values[i] *= 100;
+			h.record(values[i]);
+		}
+		Arrays.sort(values);
+		double [] percentiles = { 0, 50, 90, 99, 99.9, 99.99, 100 };
+		for (double p: percentiles) {
+			long exact = values[(int) Math.max(0, Math.ceil(p / 100.0 * n) - 1)];
+			long approximate = h.getValueAtPercentile(p);
+			if (approximate < exact || approximate > exact + exact / SUB + 1) {
+				System.err.println(String.format("Error: p%s is %d, not %d", p, approximate, exact));
+				return;
+			}
+		}
+		if (h.getCount() != n || h.getMax() != values[n - 1] || h.getMin() != values[0]) {
+			System.err.println("Error: count, min or max");
+			return;
+		}
+		/* Exact below 2 * SUB, and every bucket's bounds agree */
+		for (long v = 0; v < 1L << 20; v++) {
+			int i = index(v);
+			if ((v < 2 * SUB && i != v) || highest(i) < v || (i > 0 && highest(i - 1) >= v)) {
+				System.err.println(String.format("Error: bucket of %d", v));
+				return;
+			}
+		}
+		if (index(Long.MAX_VALUE) != (64 - BITS) * SUB - 1) {
+			System.err.println("Error: range");
+			return;
+		}
+		Histogram sum = new Histogram();
+		sum.add(h);
+		sum.add(h);
+		if (sum.getCount() != 2L * n || sum.getValueAtPercentile(50) != h.getValueAtPercentile(50)) {
+			System.err.println("Error: add");
+			return;
+		}
+		System.out.println(String.format("OK (p50 %d, p99 %d, p99.9 %d, max %d)",
+			h.getValueAtPercentile(50), h.getValueAtPercentile(99),
+			h.getValueAtPercentile(99.9), h.getMax()));
+	}
+}
@@ -7,29 +7,33 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
-public class Listener extends Thread {
+/*
+ * Accepts connections to a process, and reads each on its own thread.
+ * Messages read are put in a mailbox; a single dispatcher thread hands
+ * them to the process, in the order each connection delivered them, in
+ * batches (see Process.receiveBatch).
+ */
+public class Listener implements Runnable {
 	
 	/* The process this listener is belonging */
 	private Process process; 
+	
+	/* Messages read, but not yet received; readers block while it is full */
+	private BlockingQueue<Message> mailbox;
+	
+	private Transport.Server serversocket = null;
 
 	public Listener (Process process) {
 		this.process = process;
+		mailbox = new LinkedBlockingQueue<Message>(Utils.MAILBOX_SIZE);
 	}
 	
-	public void run() {
-		ServerSocket serversocket = null;
-		Socket s;
-
-		InputStreamReader input;
-		BufferedReader b;
-		
-		String message = null;
-		boolean done = false;
-
+	/* Listens at the process's port; run() binds it if not done already */
+	public void bind () {
 		try {
-			serversocket = new ServerSocket(process.getPort(), 1);
-			serversocket.setSoTimeout(0);
+			serversocket = Transport.get().listen(process.getPort(), Utils.BACKLOG);
 
 		} catch (IOException e) {
 			String msg =
@@ -39,6 +43,17 @@ public class Listener extends Thread {
 			System.err.println(e.getMessage());
 			System.exit(1);
 		}
+	}
+	
+	public void run() {
+		Transport.Connection s;
+		
+		boolean done = false;
+
+		if (serversocket == null)
+			bind();
+		
+		dispatch();
 		
 		while (! done) {
 			s = null;
@@ -53,13 +68,57 @@ public class Listener extends Thread {
 				System.exit(1);
 			}
 			/* Accepted connection from a MessageHandler. */
+			Threads.start("Reader", new Reader(s), true);
+		}
+	}
+	
+	/* Starts handing messages over to the process; run() calls it */
+	public void dispatch () {
+		Threads.start("Dispatcher", new Dispatcher(), true);
+	}
+	
+	/* A message for the process from within this JVM (see Emulator) */
+	public void deliver (Message m) {
+		boolean done = false;
+		while (! done) {
+			try {
+				mailbox.put(m);
+				done = true;
+			} catch (InterruptedException ignored) {}
+		}
+	}
+	
+	class Reader implements Runnable { /* One per connection */
+		
+		private Transport.Connection s;
+		
+		public Reader (Transport.Connection s) {
+			this.s = s;
+		}
+		
+		public void run () {
+			InputStreamReader input;
+			BufferedReader b;
+			DataInputStream in;
+			
+			String message = null;
 			try {
+				if (Utils.BINARY) {
+					in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+					try {
+						for (;;)
+							mailbox.put(Message.read(in));
+					} catch (EOFException eof) { /* Null message. */ }
+					in.close();
+					s.close();
+					return ;
+				}
 				input = new InputStreamReader(s.getInputStream());
 				b = new BufferedReader(input);
 				while((message = b.readLine()) != null) {
 					Message m = Message.parse(message);
 					/* Notify process */
-					process.receive(m);
+					mailbox.put(m);
 				}
 				/* Close connection */
 				b.close();
@@ -71,6 +130,23 @@ public class Listener extends Thread {
 				System.err.println(msg);
 				System.err.println(e.getMessage());
 				System.exit(1);
+			} catch (InterruptedException ignored) {}
+		}
+	}
+	
+	class Dispatcher implements Runnable {
+		
+		public void run () {
+			ArrayList<Message> batch = new ArrayList<Message>(Utils.RECEIVE_BATCH);
+			for (;;) {
+				try {
+					batch.add(mailbox.take());
+				} catch (InterruptedException ignored) {
+					continue;
+				}
+				mailbox.drainTo(batch, Utils.RECEIVE_BATCH - 1);
+				process.receiveBatch(batch);
+				batch.clear();
 			}
 		}
 	}
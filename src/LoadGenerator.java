@@ -0,0 +1,171 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.*;
+
+/*
+ * Broadcasts at a fixed rate, whether or not the Registrar keeps up (an
+ * open loop, unlike Broadcaster), and measures how long messages take to
+ * arrive, from the time they were meant to be sent; so that time spent
+ * waiting for a full window (see Utils.WINDOW) counts as latency, rather
+ * than slowing the load down.
+ *
+ * ./sysmanager.sh start LoadGenerator [#instances] [topology] \
+ *     [rate] [sizes] [mix] [duration] [warmup]
+ *
+ * rate     broadcasts per second, per process (default 1000)
+ * sizes    payload sizes, in bytes, chosen among at random (default 64);
+ *          at least the time stamp that starts each payload
+ * mix      message types and their weights, e.g. TEST:9,heartbeat:1
+ *          (default TEST)
+ * duration seconds to send for (default 10)
+ * warmup   seconds of it not measured (default 2)
+ *
+ * Latency is measured with System.nanoTime(), which all processes on one
+ * host (or in one JVM; see Emulator and Simulator) share. At the end,
+ * each process reports the messages it received, and their latency at
+ * the 50th, 99th and 99.9th percentiles, and the maximum.
+ */
+class LoadGenerator extends Process {
+
+	private long rate;
+	private int [] sizes;
+	private String [] types;
+	private int [] weights; /* Cumulative */
+	private long duration; /* nsec */
+	private long warmup;
+
+	/* Padding for each payload size, made once */
+	private String [] padding;
+
+	/* When sending starts; messages meant to be sent before start + warmup
+	 * are marked as such, and not measured by whoever receives them
+	 */
+	private long start;
+
+	private Histogram latency;
+	private long received;
+	private long discarded;
+
+	public LoadGenerator (String name, int pid, int n, String [] args) {
+		super(name, pid, n);
+
+		rate = (args.length > 3) ? Long.parseLong(args[3]) : 1000;
+		String [] s = ((args.length > 4) ? args[4] : "64").split(",");
+		sizes = new int[s.length];
+		padding = new String[s.length];
+		for (int i = 0; i < s.length; i++) {
+			sizes[i] = Integer.parseInt(s[i]);
+			padding[i] = Utils.getPayload(sizes[i]);
+		}
+		String [] mix = ((args.length > 5) ? args[5] : "TEST").split(",");
+		types = new String[mix.length];
+		weights = new int[mix.length];
+		int total = 0;
+		for (int i = 0; i < mix.length; i++) {
+			String [] t = mix[i].split(":");
+			types[i] = t[0];
+			total += (t.length > 1) ? Integer.parseInt(t[1]) : 1;
+			weights[i] = total;
+		}
+		duration = (long) ((args.length > 6) ? Double.parseDouble(args[6]) * 1e9 : 10e9);
+		warmup   = (long) ((args.length > 7) ? Double.parseDouble(args[7]) * 1e9 :  2e9);
+
+		if (rate <= 0 || total <= 0 || warmup >= duration) {
+			System.err.println("usage: LoadGenerator [rate > 0] [sizes] [type:weight,...] [duration] [warmup < duration]");
+			System.exit(1);
+		}
+
+		latency = new Histogram();
+		received = 0;
+		discarded = 0;
+	}
+
+	private String nextType () {
+		int x = random.nextInt(weights[weights.length - 1]);
+		int i = 0;
+		while (x >= weights[i])
+			i ++;
+		return types[i];
+	}
+
+	/*
+	 * Sends the k-th message at start + k / rate. If it falls behind, it
+	 * sends the messages due at once, rather than skipping them.
+	 */
+	private void begin () throws InterruptedException {
+		long period = 1000000000L / rate;
+		long sent = 0, late = 0;
+		start = nanoTime();
+		long end = start + duration;
+		for (long k = 0; ; k++) {
+			long due = start + k * period;
+			if (due >= end)
+				break;
+			long now = nanoTime();
+			if (due > now)
+				sleepNanos(due - now);
+			else
+			if (now - due > period)
+				late ++;
+			/* Stamped with the time it was due, not the time it was sent */
+			broadcastAsync(nextType(), getPayload(due, due - start < warmup));
+			sent ++;
+		}
+		double seconds = (nanoTime() - start) / 1e9;
+		Utils.out(pid, String.format("[SEND] %d messages in %.3f s (%.1f m/s, %d late)",
+			sent, seconds, sent / seconds, late));
+	}
+
+	/*
+	 * `due:w:` padded to one of the sizes, where `w` is 1 if the sender
+	 * was still warming up; receivers may have started at other times
+	 */
+	private String getPayload (long due, boolean warm) {
+		String head = String.format("%d:%d:", due, warm ? 1 : 0);
+		int i = random.nextInt(sizes.length);
+		int pad = Math.max(0, sizes[i] - head.length());
+		return head + padding[i].substring(0, pad);
+	}
+
+	public synchronized void receive (Message m) {
+		long now = nanoTime();
+		String payload = m.getPayload();
+		int colon = payload.indexOf(':');
+		if (colon < 0 || colon + 2 >= payload.length()) /* Not ours */
+			return ;
+		long due = Long.parseLong(payload.substring(0, colon));
+		received ++;
+		if (payload.charAt(colon + 1) == '1') {
+			discarded ++;
+			return ;
+		}
+		latency.record(now - due);
+	}
+
+	private synchronized void report () {
+		Utils.out(pid, String.format(
+			"[RECV] %d messages (%d in warmup); latency (usec) p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f, mean %.1f",
+			received, discarded,
+			latency.getValueAtPercentile(50) / 1e3,
+			latency.getValueAtPercentile(99) / 1e3,
+			latency.getValueAtPercentile(99.9) / 1e3,
+			latency.getMax() / 1e3,
+			latency.getMean() / 1e3));
+	}
+
+	public static void main (String [] args) throws InterruptedException {
+		String name = args[0];
+		int pid = Integer.parseInt(args[1]);
+		int n = Integer.parseInt(args[2]);
+		LoadGenerator p = new LoadGenerator(name, pid, n, args);
+		p.registeR ();
+		p.begin ();
+		/* Let the last messages (others' too) arrive */
+		p.sleep(Math.max(1000, 100 * Utils.DELAY));
+		p.report ();
+	}
+}
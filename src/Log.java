@@ -0,0 +1,265 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/*
+ * Output, by component (Registrar, Relay, etc.; Utils.out() is "out"),
+ * each with a level of its own; see Utils.LOG.
+ *
+ * A caller only puts its line into a ring buffer, shared by all threads
+ * in this JVM; one background thread takes lines out, in the order they
+ * were put, prefixes them (see prefix()) and writes them in batches,
+ * flushing once it has caught up. When the buffer is full, callers wait
+ * for room or, if Utils.LOG_DROP is set, drop their line.
+ *
+ * Lines still buffered are written when the JVM exits (but not if it is
+ * killed).
+ */
+public class Log {
+
+	public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+	private static final ConcurrentMap<String, Log> logs = new ConcurrentHashMap<String, Log>();
+
+	/* Levels, as set by Utils.LOG; `fallback` for components it does not name */
+	private static final Map<String, Level> levels = new HashMap<String, Level>();
+	private static Level fallback = Utils.DEBUG ? Level.DEBUG : Level.OFF;
+
+	static {
+		if (Utils.LOG != null) {
+			for (String s: Utils.LOG.split(",")) {
+				String [] t = s.trim().split("=");
+				try {
+					if (t.length == 1)
+						fallback = Level.valueOf(t[0].trim().toUpperCase(Locale.ROOT));
+					else
+						levels.put(t[0].trim(), Level.valueOf(t[1].trim().toUpperCase(Locale.ROOT)));
+				} catch (IllegalArgumentException e) {
+					System.err.println(String.format("Warning: invalid log level %s.", s));
+				}
+			}
+		}
+	}
+
+	public static final Log OUT = get("out");
+
+	private String component;
+	private volatile Level level;
+
+	private Log (String component) {
+		this.component = component;
+		level = levels.getOrDefault(component, fallback);
+	}
+
+	public static Log get (String component) {
+		return logs.computeIfAbsent(component, Log::new);
+	}
+
+	public String getComponent () { return component; }
+
+	public Level getLevel () { return level; }
+
+	public void setLevel (Level level) { this.level = level; }
+
+	/* True if lines at `l` are written; check before building costly ones */
+	public boolean isEnabled (Level l) {
+		return (l.compareTo(level) >= 0 && l != Level.OFF);
+	}
+
+	/* Lines without a pid are prefixed [DBG], as Utils.out() always did */
+	public void debug (String s) { log(Level.DEBUG, -1, s); }
+	public void info  (String s) { log(Level.INFO,  -1, s); }
+	public void warn  (String s) { log(Level.WARN,  -1, s); }
+	public void error (String s) { log(Level.ERROR, -1, s); }
+
+	public void debug (int id, String s) { log(Level.DEBUG, id, s); }
+	public void info  (int id, String s) { log(Level.INFO,  id, s); }
+	public void warn  (int id, String s) { log(Level.WARN,  id, s); }
+	public void error (int id, String s) { log(Level.ERROR, id, s); }
+
+	public void log (Level l, int id, String s) {
+		if (isEnabled(l))
+			ring.put(id, s);
+	}
+
+	/* Printf assumes there are no more than 999 processes */
+	private static String prefix (int id) {
+		return (id < 0) ? "[DBG] " : String.format("[%03d] ", id);
+	}
+
+	/* Created on first use, with its writer */
+	private static final Ring ring = new Ring(Utils.LOG_BUFFER);
+
+	/*
+	 * A bounded queue of lines, with many producers and one consumer, after
+	 * Vyukov's: slot i is free for the line numbered t if sequence[i] is t,
+	 * and holds it once sequence[i] is t + 1. Producers take numbers from
+	 * `tail`; the writer, as the only consumer, keeps `head` to itself.
+	 */
+	static class Ring implements Runnable {
+
+		private int mask;
+		private String [] lines;
+		private int [] ids;
+		private AtomicLongArray sequence;
+
+		private AtomicLong tail;
+		private long head;
+
+		/* Lines dropped so far, and reported so far */
+		private LongAdder dropped;
+		private long reported;
+
+		/* The writer, if it waits for lines; see DeliveryQueue.take() */
+		private AtomicReference<Thread> waiter;
+
+		private Writer out;
+		private Thread writer;
+		private volatile boolean closed;
+
+		Ring (int size) {
+			int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+			mask = capacity - 1;
+			lines = new String[capacity];
+			ids = new int[capacity];
+			sequence = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++)
+				sequence.set(i, i);
+			tail = new AtomicLong(0);
+			head = 0;
+			dropped = new LongAdder();
+			reported = 0;
+			waiter = new AtomicReference<Thread>(null);
+			closed = false;
+			OutputStream stream = System.out;
+			if (Utils.LOG_FILE != null) {
+				try {
+					stream = new FileOutputStream(Utils.LOG_FILE);
+				} catch (IOException e) {
+					System.err.println(String.format("Warning: cannot write to %s; using standard output.",
+						Utils.LOG_FILE));
+				}
+			}
+			out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+			writer = Threads.newThread("Log", this, true);
+			writer.start();
+			/* Writes what is left; callers that carry on block or drop */
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				closed = true;
+				LockSupport.unpark(writer);
+				try {
+					writer.join(1000);
+				} catch (InterruptedException e) {
+					/* Exit anyway */
+				}
+			}, "Log"));
+		}
+
+		void put (int id, String s) {
+			long t;
+			int i;
+			for (;;) {
+				t = tail.get();
+				i = (int) t & mask;
+				long seq = sequence.get(i);
+				if (seq == t) {
+					if (tail.compareAndSet(t, t + 1))
+						break;
+				} else
+				if (seq < t) {
+					/* Full: the writer has yet to take line t - capacity */
+					if (Utils.LOG_DROP || closed) {
+						dropped.increment();
+						return ;
+					}
+					LockSupport.parkNanos(this, 100000L);
+				}
+				/* Otherwise, another producer took number t; try the next */
+			}
+			lines[i] = s;
+			ids[i] = id;
+			sequence.set(i, t + 1);
+			Thread w = waiter.get();
+			if (w != null && waiter.compareAndSet(w, null))
+				LockSupport.unpark(w);
+		}
+
+		/* Only the writer calls it; false if there is no line to write */
+		private boolean take (StringBuilder line) {
+			int i = (int) head & mask;
+			if (sequence.get(i) != head + 1)
+				return false;
+			line.append(prefix(ids[i])).append(lines[i]).append(System.lineSeparator());
+			lines[i] = null;
+			sequence.set(i, head + mask + 1);
+			head ++;
+			return true;
+		}
+
+		public void run () {
+			StringBuilder line = new StringBuilder();
+			Thread self = Thread.currentThread();
+			for (;;) {
+				try {
+					while (take(line)) {
+						out.write(line.toString());
+						line.setLength(0);
+					}
+					long d = dropped.sum();
+					if (d > reported) {
+						out.write(String.format("[LOG] %d lines dropped%n", d - reported));
+						reported = d;
+					}
+					out.flush();
+				} catch (IOException e) {
+					System.err.println("Error: cannot write output.");
+					System.err.println(e.getMessage());
+					return ;
+				}
+				if (closed)
+					return ;
+				waiter.set(self);
+				/* A put() after the take() above either sees `waiter`, or
+				 * its line is seen by the one below.
+				 */
+				int i = (int) head & mask;
+				if (sequence.get(i) != head + 1 && ! closed)
+					LockSupport.park(this);
+				waiter.compareAndSet(self, null);
+			}
+		}
+	}
+
+	/* Unit tests */
+	public static void main (String [] args) throws InterruptedException {
+		int threads = 4, n = 100000;
+		Log log = get("test");
+		Thread [] t = new Thread[threads];
+		for (int k = 0; k < threads; k++) {
+			int id = k + 1;
+			t[k] = new Thread(() -> {
+				for (int i = 0; i < n; i++)
+					log.info(id, String.valueOf(i));
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread x: t)
+			x.start();
+		for (Thread x: t)
+			x.join();
+		long elapsed = System.nanoTime() - start;
+		log.setLevel(Level.WARN);
+		log.info("Error: not filtered");
+		System.err.println(String.format("%d lines queued in %.3f s (%.0f ns each).",
+			threads * n, elapsed / 1e9, (double) elapsed / (threads * n)));
+	}
+}
@@ -0,0 +1,165 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+ * A dense, row-major matrix of small non-negative ints, as used by the
+ * routing oracle. Entries take 2 bytes if they are all below 65536, or
+ * 4 otherwise. The store is one of
+ *
+ * "heap"   - ByteBuffer.allocate();
+ * "direct" - ByteBuffer.allocateDirect(), outside the Java heap; or
+ * "mapped" - a memory-mapped temporary file, paged in and out by the OS.
+ *
+ * A buffer holds at most 2GB, so large matrices are split into segments
+ * of whole rows.
+ */
+public class Matrix {
+
+	private int rows;
+	private int columns;
+
+	private boolean wide; /* 4 bytes per entry */
+	private int rowsPerSegment;
+
+	/* One view per segment; only one of the two is used */
+	private CharBuffer [] narrow;
+	private IntBuffer  [] words;
+
+	private long bytes;
+
+	/* Entries must be in 0 ... max */
+	public Matrix (int rows, int columns, int max, String store) {
+		this.rows = rows;
+		this.columns = columns;
+
+		wide = (max > Character.MAX_VALUE);
+		int size = wide ? 4 : 2;
+		rowsPerSegment = (int) Math.max(1, Math.min(rows, Integer.MAX_VALUE / ((long) columns * size)));
+		int segments = (rows + rowsPerSegment - 1) / rowsPerSegment;
+
+		narrow = new CharBuffer[segments];
+		words  = new IntBuffer [segments];
+		bytes = 0;
+
+		RandomAccessFile file = null;
+		try {
+			if (store.equals("mapped")) {
+				File f = File.createTempFile("co347-oracle-", ".bin");
+				file = new RandomAccessFile(f, "rw");
+				/* The mapping outlives the name */
+				f.delete();
+			}
+			for (int i = 0; i < segments; i++) {
+				int r = Math.min(rowsPerSegment, rows - i * rowsPerSegment);
+				int length = r * columns * size;
+				ByteBuffer b;
+				if (file != null)
+					b = file.getChannel().map(FileChannel.MapMode.READ_WRITE, bytes, length);
+				else
+				if (store.equals("direct"))
+					b = ByteBuffer.allocateDirect(length);
+				else
+					b = ByteBuffer.allocate(length);
+				b.order(ByteOrder.nativeOrder());
+				if (wide)
+					words[i] = b.asIntBuffer();
+				else
+					narrow[i] = b.asCharBuffer();
+				bytes += length;
+			}
+			if (file != null)
+				file.close(); /* Also not needed by the mapping */
+		} catch (IOException e) {
+			System.err.println(String.format("Error: failed to map a %d x %d matrix.", rows, columns));
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public int getRows () { return rows; }
+	public int getColumns () { return columns; }
+
+	/* Size of the store, in bytes */
+	public long getBytes () { return bytes; }
+
+	public int get (int u, int v) {
+		int s = u / rowsPerSegment;
+		int i = (u - s * rowsPerSegment) * columns + v;
+		return wide ? words[s].get(i) : narrow[s].get(i);
+	}
+
+	public void set (int u, int v, int x) {
+		int s = u / rowsPerSegment;
+		int i = (u - s * rowsPerSegment) * columns + v;
+		if (wide)
+			words[s].put(i, x);
+		else
+			narrow[s].put(i, (char) x);
+	}
+
+	/* Copies row u into `row` */
+	public void getRow (int u, int [] row) {
+		int s = u / rowsPerSegment;
+		int i = (u - s * rowsPerSegment) * columns;
+		if (wide) {
+			IntBuffer b = words[s];
+			for (int v = 0; v < columns; v++)
+				row[v] = b.get(i + v);
+		} else {
+			CharBuffer b = narrow[s];
+			for (int v = 0; v < columns; v++)
+				row[v] = b.get(i + v);
+		}
+	}
+
+	/* Copies `row` into row u */
+	public void setRow (int u, int [] row) {
+		int s = u / rowsPerSegment;
+		int i = (u - s * rowsPerSegment) * columns;
+		if (wide) {
+			IntBuffer b = words[s];
+			for (int v = 0; v < columns; v++)
+				b.put(i + v, row[v]);
+		} else {
+			CharBuffer b = narrow[s];
+			for (int v = 0; v < columns; v++)
+				b.put(i + v, (char) row[v]);
+		}
+	}
+
+	/* Unit tests */
+	public static void main (String [] args) {
+		String [] stores = { "heap", "direct", "mapped" };
+		int [] max = { 100, 1 << 20 };
+		for (String store: stores) {
+			for (int m: max) {
+				Matrix a = new Matrix(37, 53, m, store);
+				int [] row = new int[53];
+				for (int u = 0; u < 37; u++) {
+					for (int v = 0; v < 53; v++)
+						row[v] = (u * 53 + v) % (m + 1);
+					a.setRow(u, row);
+				}
+				a.set(5, 7, m);
+				for (int u = 0; u < 37; u++) {
+					a.getRow(u, row);
+					for (int v = 0; v < 53; v++) {
+						int x = (u == 5 && v == 7) ? m : (u * 53 + v) % (m + 1);
+						if (row[v] != x || a.get(u, v) != x) {
+							System.err.println(String.format("Error: %s[%d][%d] != %d", store, u, v, x));
+							return;
+						}
+					}
+				}
+				System.out.println(String.format("%s, max %d: %d bytes", store, m, a.getBytes()));
+			}
+		}
+	}
+}
@@ -4,6 +4,9 @@
  * Distributed Algorithms, CO347
  */
 
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 
 public class Message {
@@ -13,6 +16,31 @@ public class Message {
 	private String type; /* Message type */
     private String payload;
 	
+	/* Destinations of a multicast; destination is then Utils.MULTICAST */
+	private int [] group;
+	
+	/* Binary framing (see Utils.BINARY)
+	 *
+	 * A frame is laid out as:
+	 * [int length][int source][int destination][byte type][payload bytes]
+	 * where `length` counts the bytes that follow it. Common types are sent
+	 * as a compact id; any other type has id 0 and follows as a short-prefixed
+	 * UTF-8 string. A multicast's group follows the type, as a short count
+	 * and that many ints. The payload is sent raw, so it needs no escaping.
+	 */
+	private static final String [] TYPES = {
+		null, "NULL", Utils.CHECK_COST, Utils.CHECK_NEXT, 
+		"heartbeat", "mydist", Utils.OPENED, Utils.CLOSED,
+		Utils.CHECK_COST_TABLE, Utils.CHECK_NEXT_TABLE
+	};
+	private static final HashMap<String,Integer> TYPEIDS = new HashMap<String,Integer>();
+	static {
+		for (int i = 1; i < TYPES.length; i++)
+			TYPEIDS.put(TYPES[i], i);
+	}
+	
+	public static final int HEADER_SIZE = 13; /* length, source, destination, type */
+	
 	public Message (int source, int destination, String type, String payload) {
 		this.source = source;
 		this.destination = destination;
@@ -29,6 +57,13 @@ public class Message {
 	
 	public Message (Message m) {
 		this(m.getSource(), m.getDestination(), m.getType(), m.getPayload());
+		this.group = m.getGroup();
+	}
+	
+	/* A multicast to every process in `group` */
+	public Message (int source, int [] group, String type, String payload) {
+		this(source, Utils.MULTICAST, type, payload);
+		this.group = group;
 	}
 	
 	public int getSource () {
@@ -46,6 +81,14 @@ public class Message {
 		return payload;
 	}
 	
+	public int [] getGroup () {
+		return group;
+	}
+	
+	public boolean isMulticast () {
+		return (destination == Utils.MULTICAST && group != null);
+	}
+	
 	public void setSource (int source) {
 		this.source = source;
 	}
@@ -62,24 +105,142 @@ public class Message {
 		this.payload = payload;
 	}
 	
+	public void setGroup (int [] group) {
+		this.group = group;
+		this.destination = Utils.MULTICAST;
+	}
+	
 	public static Message parse (String msg) {
 		StringTokenizer tokens = new StringTokenizer(msg, Utils.SEPARATOR);
 		int s = Integer.parseInt(tokens.nextToken());
-		int d = Integer.parseInt(tokens.nextToken());
+		String destination = tokens.nextToken();
 		String t = tokens.nextToken();
 		String p = tokens.nextToken();
-		return new Message(s, d, t, p);
+		int c = destination.indexOf(':');
+		if (c < 0)
+			return new Message(s, Integer.parseInt(destination), t, p);
+		/* A multicast; of the form `-2:g1,g2,...`, or `-2:` if empty */
+		String list = destination.substring(c + 1);
+		String [] members = list.isEmpty() ? new String[0] : list.split(",");
+		int [] g = new int[members.length];
+		for (int i = 0; i < g.length; i++)
+			g[i] = Integer.parseInt(members[i]);
+		return new Message(s, g, t, p);
     }
+	
+	private String packDestination () {
+		if (! isMulticast())
+			return String.format("%d", destination);
+		StringBuilder b = new StringBuilder();
+		b.append(destination).append(':');
+		for (int i = 0; i < group.length; i++) {
+			if (i > 0)
+				b.append(',');
+			b.append(group[i]);
+		}
+		return b.toString();
+	}
 
 	public String pack () {
 		String s = 
 			String.format("%d",      source) + Utils.SEPARATOR + 
-			String.format("%d", destination) + Utils.SEPARATOR +
+			packDestination()                + Utils.SEPARATOR +
 			String.format("%s",        type) + Utils.SEPARATOR + 
 			String.format("%s",     payload) + Utils.SEPARATOR ;
 		return s;
     }
 	
+	public static int getTypeId (String type) {
+		Integer id = TYPEIDS.get(type);
+		return (id == null) ? 0 : id;
+	}
+	
+	/* Returns the size of this message's binary frame, length included */
+	public int getFrameSize () {
+		int size = HEADER_SIZE + String.valueOf(payload).getBytes(StandardCharsets.UTF_8).length;
+		if (getTypeId(type) == 0)
+			size += 2 + String.valueOf(type).getBytes(StandardCharsets.UTF_8).length;
+		if (isMulticast())
+			size += 2 + 4 * group.length;
+		return size;
+	}
+	
+	/* Writes this message's binary frame into `buffer` */
+	public void encode (ByteBuffer buffer) {
+		int start = buffer.position();
+		int id = getTypeId(type);
+		buffer.putInt(0); /* Filled in below */
+		buffer.putInt(source);
+		buffer.putInt(destination);
+		buffer.put((byte) id);
+		if (id == 0) {
+			byte [] t = String.valueOf(type).getBytes(StandardCharsets.UTF_8);
+			buffer.putShort((short) t.length);
+			buffer.put(t);
+		}
+		if (isMulticast()) {
+			buffer.putShort((short) group.length);
+			for (int i = 0; i < group.length; i++)
+				buffer.putInt(group[i]);
+		}
+		buffer.put(String.valueOf(payload).getBytes(StandardCharsets.UTF_8));
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+	
+	public byte [] encode () {
+		ByteBuffer buffer = ByteBuffer.allocate(getFrameSize());
+		encode(buffer);
+		return buffer.array();
+	}
+	
+	/* Reads one binary frame from `buffer`, which must hold all of it */
+	public static Message decode (ByteBuffer buffer) {
+		int length = buffer.getInt();
+		int end = buffer.position() + length;
+		int s = buffer.getInt();
+		int d = buffer.getInt();
+		int id = buffer.get() & 0xff;
+		String t;
+		if (id == 0) {
+			byte [] b = new byte[buffer.getShort()];
+			buffer.get(b);
+			t = new String(b, StandardCharsets.UTF_8);
+		} else
+			t = TYPES[id];
+		int [] g = null;
+		if (d == Utils.MULTICAST) {
+			g = new int[buffer.getShort()];
+			for (int i = 0; i < g.length; i++)
+				g[i] = buffer.getInt();
+		}
+		String p = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), 
+			end - buffer.position(), StandardCharsets.UTF_8);
+		buffer.position(end);
+		if (g != null)
+			return new Message(s, g, t, p);
+		return new Message(s, d, t, p);
+	}
+	
+	/* Returns true if `buffer` holds at least one whole frame */
+	public static boolean hasFrame (ByteBuffer buffer) {
+		if (buffer.remaining() < 4)
+			return false;
+		return (buffer.remaining() - 4 >= buffer.getInt(buffer.position()));
+	}
+	
+	/* Blocking I/O counterparts of encode() and decode() */
+	public static Message read (DataInputStream in) throws IOException {
+		int length = in.readInt();
+		byte [] frame = new byte[length + 4];
+		ByteBuffer.wrap(frame).putInt(length);
+		in.readFully(frame, 4, length);
+		return decode(ByteBuffer.wrap(frame));
+	}
+	
+	public void write (DataOutputStream out) throws IOException {
+		out.write(encode());
+	}
+	
 	public String toString () { /* Just prettier than pack() */
 		String s = 
 			String.format("%03d",      source) + Utils.SEPARATOR + 
@@ -90,8 +251,16 @@ public class Message {
     }
 	
 	public static void main (String [] args) {
+		/* Round trip through a binary frame */
+		Message m = new Message(1, 2, "TEST", "a<|>b");
+		System.out.println(Message.decode(ByteBuffer.wrap(m.encode())));
+		m = new Message(1, new int [] { 2, 3 }, "TEST", "x");
+		System.out.println(Message.decode(ByteBuffer.wrap(m.encode())).pack());
+		System.out.println(Message.parse(m.pack()).pack());
+		m = new Message(1, new int [0], "TEST", "x");
+		System.out.println(Message.parse(m.pack()).pack());
 		String s = "0<|>0<|><|><|>";
-		Message m = Message.parse(s);
+		m = Message.parse(s);
 		System.out.println(m);
 	}
 }
@@ -2,29 +2,43 @@ import java.io.*;
 
 public class MessageEntry implements Comparable<MessageEntry> {
 	
-	private String message;
+	private Frame frame; /* Shared by all destinations of a broadcast */
+	private int destination;
 	private int priority;
 	private long timestamp;
 	
-	public MessageEntry (String message, int priority, long timestamp) {
-		this.message   =   message;
-		this.priority  =  priority;
-		this.timestamp = timestamp;
+	public MessageEntry (Frame frame, int destination, int priority, long timestamp) {
+		this.frame       =       frame;
+		this.destination = destination;
+		this.priority    =    priority;
+		this.timestamp   =   timestamp;
 	}
 	
 	public int getPriority() {
 		return priority;
 	}
 	
+	public Frame getFrame() {
+		return frame;
+	}
+	
+	public int getDestination() {
+		return destination;
+	}
+	
 	public String getMessage() {
-		return message;
+		return frame.toMessage(destination).pack();
+	}
+	
+	public void write (OutputStream out, boolean binary) throws IOException {
+		frame.write(out, destination, binary);
 	}
 	
 	public int compareTo (MessageEntry m) {
 		int result;
 		result = this.priority - m.priority;
 		if (result == 0)
-			return (int) (this.timestamp - m.timestamp);
+			return Long.compare(this.timestamp, m.timestamp);
 		return result;
 	}
 }
@@ -0,0 +1,146 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+/*
+ * The Registrar's live metrics, served on localhost in Prometheus' text
+ * format, e.g.
+ *
+ * curl http://localhost:6666/metrics
+ *
+ * Registration state, and for every registered process: messages it sent,
+ * messages queued for it, and its queue's depth; so a backed-up process
+ * shows while a run is still going. Also the messages held back by link
+ * delays, message counts by type, and how long the oracle takes to
+ * recompute routes.
+ *
+ * Counters are kept as messages are relayed anyway (see Record, Relay
+ * and DeliveryQueue); they are only read, on one thread, when asked
+ * for. Rates are over the time since the previous request.
+ */
+public class Metrics implements HttpHandler {
+
+	private Registrar r;
+
+	/* Messages each process had sent, and when, at the last request */
+	private long [] relayed;
+	private long time;
+
+	private Metrics (Registrar r) {
+		this.r = r;
+		relayed = new long[r.n + 1];
+		time = System.nanoTime();
+	}
+
+	/* Serves r's metrics at `port`; warns, but carries on, if it cannot */
+	public static void start (Registrar r, int port) {
+		try {
+			HttpServer server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Utils.BACKLOG);
+			server.createContext("/metrics", new Metrics(r));
+			server.setExecutor(Executors.newSingleThreadExecutor(
+				task -> Threads.newThread("Metrics", task, true)));
+			server.start();
+		} catch (IOException e) {
+			System.err.println(String.format("Warning: no metrics at port %d.", port));
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public void handle (HttpExchange exchange) throws IOException {
+		byte [] body = format().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static void metric (StringBuilder s, String name, String type, String help) {
+		s.append(String.format("# HELP %s %s\n# TYPE %s %s\n", name, help, name, type));
+	}
+
+	/* Only the handler's thread calls it */
+	private String format () {
+		StringBuilder s = new StringBuilder();
+		long now = System.nanoTime();
+		double dt = (now - time) / 1e9;
+		time = now;
+
+		metric(s, "co347_processes", "gauge", "Processes expected, and registered so far.");
+		s.append(String.format("co347_processes{state=\"expected\"} %d\n", r.n));
+		s.append(String.format("co347_processes{state=\"registered\"} %d\n", r.getRegistered()));
+		metric(s, "co347_registration_seconds", "gauge",
+			"Time from start-up until all processes registered; -1 until they have.");
+		long t = r.getRegistrationTime();
+		s.append(String.format("co347_registration_seconds %s\n", (t < 0) ? "-1" : String.valueOf(t / 1e3)));
+
+		Record [] records = new Record[r.n + 1];
+		for (int p = 1; p <= r.n; p++)
+			records[p] = r.find(p);
+
+		metric(s, "co347_relayed_total", "counter", "Messages sent by each process.");
+		for (int p = 1; p <= r.n; p++)
+			if (records[p] != null)
+				s.append(String.format("co347_relayed_total{process=\"P%d\"} %d\n", p, records[p].getRelayed()));
+		metric(s, "co347_relay_rate", "gauge",
+			"Messages per second sent by each process, since the previous request.");
+		for (int p = 1; p <= r.n; p++) {
+			if (records[p] == null)
+				continue;
+			long count = records[p].getRelayed();
+			double rate = (dt > 0) ? (count - relayed[p]) / dt : 0.0;
+			relayed[p] = count;
+			s.append(String.format(Locale.ROOT, "co347_relay_rate{process=\"P%d\"} %.1f\n", p, rate));
+		}
+		metric(s, "co347_queued_total", "counter", "Messages queued for delivery to each process.");
+		for (int p = 1; p <= r.n; p++)
+			if (records[p] != null)
+				s.append(String.format("co347_queued_total{process=\"P%d\"} %d\n",
+					p, records[p].getQueue().getTotal()));
+		metric(s, "co347_queue_depth", "gauge", "Messages due, but not yet written, to each process.");
+		for (int p = 1; p <= r.n; p++)
+			if (records[p] != null)
+				s.append(String.format("co347_queue_depth{process=\"P%d\"} %d\n",
+					p, records[p].getQueue().size()));
+		metric(s, "co347_faulty", "gauge", "1 if the process is faulty.");
+		for (int p = 1; p <= r.n; p++)
+			if (records[p] != null)
+				s.append(String.format("co347_faulty{process=\"P%d\"} %d\n", p, records[p].isFaulty() ? 1 : 0));
+
+		metric(s, "co347_in_flight", "gauge", "Messages held back by link delays.");
+		s.append(String.format("co347_in_flight %d\n", r.getScheduler().size()));
+		metric(s, "co347_messages_total", "counter", "Messages relayed, by type.");
+		for (Map.Entry<String, Long> e: r.getStats().entrySet())
+			s.append(String.format("co347_messages_total{type=\"%s\"} %d\n", escape(e.getKey()), e.getValue()));
+
+		RoutingOracle oracle = r.oracle;
+		if (oracle != null) { /* Built after this starts */
+			metric(s, "co347_oracle_updates_total", "counter", "Route recomputations (reset, remove, etc.).");
+			s.append(String.format("co347_oracle_updates_total %d\n", oracle.getUpdates()));
+			metric(s, "co347_oracle_update_seconds_total", "counter", "Time spent recomputing routes.");
+			s.append(String.format(Locale.ROOT, "co347_oracle_update_seconds_total %.6f\n", oracle.getUpdateTime() / 1e9));
+			metric(s, "co347_oracle_last_update_seconds", "gauge", "Time the last recomputation took.");
+			s.append(String.format(Locale.ROOT, "co347_oracle_last_update_seconds %.6f\n", oracle.getLastUpdateTime() / 1e9));
+			metric(s, "co347_oracle_cache_total", "counter", "Lazy oracle row lookups (see Utils.ORACLE_LAZY).");
+			s.append(String.format("co347_oracle_cache_total{result=\"hit\"} %d\n", oracle.getCacheHits()));
+			s.append(String.format("co347_oracle_cache_total{result=\"miss\"} %d\n", oracle.getCacheMisses()));
+		}
+		return s.toString();
+	}
+
+	/* Label values are quoted; types are arbitrary strings */
+	private static String escape (String v) {
+		return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
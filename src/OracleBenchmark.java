@@ -0,0 +1,68 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Times RoutingOracle.reset() on generated dense graphs, on one thread
+ * and on all of them.
+ *
+ * java OracleBenchmark [density] [V] [V] ...
+ */
+class OracleBenchmark {
+	
+	private static final int RUNS = 5;
+	
+	/* Writes a random graph with `V` nodes as a list of links */
+	private static String generate (int V, double density, long seed) throws IOException {
+		Random random = new Random(seed);
+		File file = File.createTempFile("graph-", ".txt");
+		file.deleteOnExit();
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		for (int u = 1; u <= V; u++) {
+			/* A ring keeps the graph connected */
+			writer.println(String.format("%d %d", u, (u % V) + 1));
+			for (int v = u + 1; v <= V; v++)
+				if (random.nextDouble() < density)
+					writer.println(String.format("%d %d", u, v));
+		}
+		writer.close();
+		return file.getPath();
+	}
+	
+	private static double time (RoutingOracle o, int threads) {
+		o.setThreads(threads);
+		o.reset(); /* Warm up */
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long t = System.nanoTime();
+			o.reset();
+			best = Math.min(best, System.nanoTime() - t);
+		}
+		return (double) best / 1000000.;
+	}
+	
+	public static void main (String [] args) throws IOException {
+		double density = (args.length > 0) ? Double.parseDouble(args[0]) : 0.5;
+		int threads = Runtime.getRuntime().availableProcessors();
+		System.out.println(String.format("density %.2f, %d threads", density, threads));
+		System.out.println(String.format("%6s %8s %12s %12s %8s", "V", "E", "1 thread", "all", "speedup"));
+		int [] sizes = { 250, 500, 1000 };
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				sizes[i - 1] = Integer.parseInt(args[i]);
+		}
+		for (int V: sizes) {
+			RoutingOracle o = new RoutingOracle(V, generate(V, density, V));
+			double sequential = time(o, 1);
+			double parallel = time(o, threads);
+			System.out.println(String.format("%6d %8d %10.1fms %10.1fms %7.2fx", 
+				V, o.getE(), sequential, parallel, sequential / parallel));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * The selector-based counterpart of Worker.MessageHandler: drains a
+ * process's queue into the connection to its Listener.
+ */
+public class Outbox implements EventLoop.Handler, Runnable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private Record record;
+	private EventLoop loop;
+
+	private SocketChannel channel;
+	private SelectionKey key;
+	private Backoff backoff;
+
+	private DeliveryQueue queue;
+
+	/* Bytes awaiting to be written */
+	private ByteBuffer out;
+	private byte [] pending;
+	private int offset;
+
+	/* True if a drain() is already pending on the loop */
+	private AtomicBoolean scheduled;
+
+	public Outbox (Record record, EventLoop loop) {
+		this.record = record;
+		this.loop = loop;
+
+		queue = record.getQueue();
+		out = ByteBuffer.allocate(BUFFER_SIZE);
+		pending = null;
+		offset = 0;
+
+		scheduled = new AtomicBoolean(false);
+		backoff = new Backoff();
+	}
+
+	private String getInfo () {
+		return String.format("[%s at %s:%d]", record.getName(), record.getHost(), record.getPort());
+	}
+
+	/* Must be called on the loop's thread */
+	public void connect () {
+		try {
+			channel = Transport.get().open();
+			channel.configureBlocking(false);
+			SocketAddress address = Transport.get().getAddress(record.getHost(), record.getPort());
+			if (channel.connect(address)) {
+				key = loop.register(channel, 0, this);
+				connected();
+			} else
+				key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+		} catch (IOException e) {
+			retry(e);
+		}
+	}
+
+	private void retry (IOException e) {
+		try {
+			if (key != null)
+				key.cancel();
+			channel.close();
+		} catch (IOException ignored) {}
+		key = null;
+		loop.schedule(() -> connect(), backoff.failed(getInfo(), e));
+	}
+
+	private void connected () {
+		key.interestOps(0);
+		record.setNotifier(this);
+		/* Anything queued before the connection was up */
+		drain();
+	}
+
+	public void handle (SelectionKey key) throws IOException {
+		if (key.isConnectable()) {
+			try {
+				channel.finishConnect();
+			} catch (IOException e) {
+				retry(e);
+				return ;
+			}
+			connected();
+		} else
+		if (key.isWritable())
+			drain();
+	}
+
+	/* Record's notifier; called by whichever thread queued a message */
+	public void run () {
+		if (scheduled.compareAndSet(false, true))
+			loop.execute(() -> drain());
+	}
+
+	private void drain () {
+		MessageEntry entry;
+		scheduled.set(false);
+		try {
+			for (;;) {
+				/* Fill the buffer with as many messages as fit */
+				while (out.hasRemaining()) {
+					if (pending == null) {
+						if ((entry = queue.poll()) == null)
+							break;
+						Frame f = entry.getFrame();
+						int size = f.getSize(entry.getDestination(), record.isBinary());
+						if (size <= out.remaining()) {
+							f.put(out, entry.getDestination(), record.isBinary());
+							continue;
+						}
+						/* Does not fit; copy it over piecemeal */
+						pending = f.toBytes(entry.getDestination(), record.isBinary());
+						offset = 0;
+					}
+					int length = Math.min(out.remaining(), pending.length - offset);
+					out.put(pending, offset, length);
+					offset += length;
+					if (offset == pending.length)
+						pending = null;
+				}
+				out.flip();
+				channel.write(out);
+				out.compact();
+				if (out.position() > 0) { /* Socket is full; wait until writable */
+					key.interestOps(SelectionKey.OP_WRITE);
+					return ;
+				}
+				if (pending == null && queue.isEmpty()) {
+					key.interestOps(0);
+					return ;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println(String.format("Error: failed to write to %s.", getInfo()));
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -7,52 +7,87 @@
 import java.io.*;
 import java.util.*;
 
-public class PeriodicPrinter extends Thread {
+/*
+ * Writes, every period, the traffic over each link during it (see Traffic)
+ * to measurements.log: one line per link that carried any, as
+ *
+ * tick  source  destination  messages/s  bytes/s  type count ...
+ *
+ * followed by a count for every type it carried (see Traffic.OTHER).
+ */
+public class PeriodicPrinter implements Runnable {
 	
 	private Registrar  r;
-
+	
 	private boolean poll;
 	private long   count;
-
-	private LinkedList<String> messages;
+	
 	private PrintWriter writer;
 	
 	private long period;
 	
+	/* Counts at the end of the previous period, and now; see Traffic.snapshot() */
+	private long [][] messages, _messages;
+	private long [] bytes, _bytes;
+	
 	public PeriodicPrinter (Registrar r) {
 		this.r = r;
-		
+	
 		poll  = true;
 		count = 0;
 		writer = null;
-		messages = new LinkedList<String>();
 		period = 100; /* Poll every 100 ms */
-		if (Utils.P.isEmpty()) /* Nothing to poll. */
-			poll = false;
-		else {
-			try { writer = new PrintWriter("measurements.log");
-			} catch (Exception e) { e.printStackTrace(); }
-		}
+		try { writer = new PrintWriter("measurements.log");
+		} catch (Exception e) { e.printStackTrace(); poll = false; }
 	}
 	
 	public void run  () {
-		long answer = 0;
-		String line = null;
+		Traffic traffic = null;
+		StringBuilder line = new StringBuilder();
+		long t = System.nanoTime(), _t;
 		while (poll) {
 			/* Poll values periodically. */
 			try { Thread.sleep(period);
 			} catch (Exception e) { e.printStackTrace(); }
 			count += 1;
-			line = String.format("%4d\t", count);
-			for (String key: Utils.P.keySet()) {
-				answer = r.getStats(key);
-				line += String.format("%10s\t%6d\t", key, answer);
+			if (traffic == null) {
+				/* Made with the oracle, after this starts */
+				traffic = r.getTraffic();
+				if (traffic == null)
+					continue;
+				int links = traffic.getLinks();
+				messages = new long[links][Traffic.TYPES];
+				_messages = new long[links][Traffic.TYPES];
+				bytes = new long[links];
+				_bytes = new long[links];
+				t = System.nanoTime();
+			}
+			String [] types = traffic.snapshot(_messages, _bytes);
+			_t = System.nanoTime();
+			double dt = (_t - t) / 1e9;
+			for (int i = 0; i < bytes.length; i++) {
+				long m = 0;
+				for (int c = 0; c < types.length; c++)
+					m += _messages[i][c] - messages[i][c];
+				long b = _bytes[i] - bytes[i];
+				if (m == 0 && b == 0)
+					continue;
+				line.setLength(0);
+				line.append(String.format("%4d\t%4d\t%4d\t%10.1f\t%12.1f", count,
+					traffic.getSource(i), traffic.getDestination(i), m / dt, b / dt));
+				for (int c = 0; c < types.length; c++) {
+					long d = _messages[i][c] - messages[i][c];
+					if (d > 0)
+						line.append(String.format("\t%10s\t%6d", types[c], d));
+				}
+				writer.println(line);
 			}
-			writer.println(line);
 			writer.flush();
+			/* This period's counts are the next one's start */
+			long [][] x = messages; messages = _messages; _messages = x;
+			long [] y = bytes; bytes = _bytes; _bytes = y;
+			t = _t;
 		}
 		return ;
 	}
 }
-
-
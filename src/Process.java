@@ -7,9 +7,13 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 class Process {
 	
+	private static final Log log = Log.get("Process");
+	
 	private String name; /* A triptych that identifies a process p */
 	private String host;
 	private int    port;
@@ -18,14 +22,38 @@ class Process {
 	public int pid, n;
 	
 	/* Socket `socket` connects to the Registrar */
-	private Socket socket = null;
+	private Transport.Connection socket = null;
 	private InputStreamReader input;
 	private BufferedReader b;
 	private PrintWriter p;	
 	
+	/* Binary framing, if agreed at registration (see Utils.BINARY) */
+	private DataInputStream in;
+	private DataOutputStream out;
+	private boolean binary = false;
+	
+	/* Asynchronous sends: at most Utils.WINDOW messages await an ack;
+	 * acks arrive in order, so they complete `inflight` front to back. 
+	 */
+	private ConcurrentLinkedQueue<CompletableFuture<Boolean>> inflight;
+	private Semaphore window;
+	private ReentrantLock sending;
+	private Thread reader = null;
+	private volatile boolean closed = false; /* Set by AckReader */
+	
+	/* Set if the Registrar runs in this JVM (see Emulator and Simulator):
+	 * messages are then handed to it, and delivered by it, without any
+	 * sockets.
+	 */
+	private Relay relay = null;
+	private Listener listener;
+	
 	/* A random number generator */
 	Random random;
 	
+	/* Runs timers (see schedule), unless simulated; shared by all */
+	private static ScheduledExecutorService timers = null;
+	
 	public Process(String name, int pid, int n) {
 		
 		this.name = name;
@@ -47,34 +75,44 @@ class Process {
 		this.pid = pid;
 		this.n = n;
 		
-		random = new Random();
+		random = Simulator.newRandom();
+		
+		inflight = new ConcurrentLinkedQueue<CompletableFuture<Boolean>>();
+		window = new Semaphore(Utils.WINDOW);
+		sending = new ReentrantLock();
 		
-		/* Accepts connections from one of Registrar's worker threads */
-		new Thread (new Listener(this)).start();
-		/* Connect to registrar */
-		socket = connect ();
-		init ();
-		Utils.out(pid, "Connected.");
+		listener = new Listener(this);
+		if (Simulator.isRunning()) {
+			/* Messages are delivered as events; see Simulator.deliver */
+			relay = new Relay(Simulator.getRegistrar());
+			relay.setProcess(pid);
+			Simulator.get().attach(this);
+		} else
+		if (Emulator.isRunning()) {
+			relay = new Relay(Emulator.getRegistrar());
+			relay.setProcess(pid);
+			listener.dispatch();
+		} else {
+			/* Accepts connections from one of Registrar's worker threads;
+			 * bound first, so that it can connect as soon as p registers
+			 */
+			listener.bind();
+			Threads.start("Listener", listener, false);
+			/* Connect to registrar */
+			socket = connect ();
+			init ();
+		}
+		log.info(pid, "Connected.");
 	}
 	
-	private Socket connect () {
-		Socket socket = null;
-		int attempts = 0;
+	private Transport.Connection connect () {
+		Transport.Connection socket = null;
+		Backoff backoff = new Backoff();
 		do {
-			attempts ++;
 			try {
-				socket = new Socket(Utils.REGISTRAR_ADDR, Utils.REGISTRAR_PORT);
-				socket.setKeepAlive(true);
-				socket.setSoTimeout(0);
+				socket = Transport.get().connect(Utils.REGISTRAR_ADDR, Utils.REGISTRAR_PORT);
 			} catch (Exception e) {
-				String msg =
-					String.format("Warning: connection attempt %d failed at %s.",
-				attempts, this.getInfo());
-				System.err.println(msg);
-				System.err.println(e.getMessage());
-				try {
-					Thread.sleep(random.nextInt(100) + 1); /* [0..100] + 1 > 0. */
-				} catch (InterruptedException ignored) {}
+				backoff.pause(String.format("the Registrar from %s", this.getInfo()), e);
 			}
 		} while (socket == null);
 		return socket;
@@ -99,31 +137,103 @@ class Process {
 		String payload;
 		Message m;
 		boolean result;
+		
+		if (relay != null)
+			return registerLocally ();
 		payload = String.format("%s:%s:%d", name, host, port);
+		if (Utils.BINARY)
+			payload += ":binary";
 		m = new Message(pid, 0, "NULL", payload);
-		result = await(m.pack());
+		result = await(m);
+		if (result) {
+			log.info(pid, "Registered.");
+			if (Utils.BINARY) {
+				/* From now on, frames are binary */
+				try {
+					in  = new DataInputStream (new BufferedInputStream (socket.getInputStream()));
+					out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+					binary = true;
+				} catch (IOException e) {
+					/* Ignore for now. */
+				}
+			}
+			/* From now on, replies are read in the background */
+			reader = Threads.start("AckReader", new AckReader(), true);
+		}
+		return result;
+	}
+	
+	/* The Emulator's registeR(): p's queue at the Registrar is drained 
+	 * straight into its Listener's mailbox
+	 */
+	private boolean registerLocally () {
+		if (Simulator.isRunning()) {
+			boolean result = Simulator.getRegistrar().registeR (new Record(name, host, port));
+			Simulator.get().awaitRegistration();
+			if (result)
+				log.info(pid, "Registered.");
+			return result;
+		}
+		Registrar r = Emulator.getRegistrar();
+		Record record = new Record(name, host, port);
+		DeliveryQueue queue = record.getQueue();
+		Threads.start("MessageHandler-" + name, () -> {
+			for (;;) {
+				MessageEntry entry;
+				try {
+					entry = queue.take();
+				} catch (InterruptedException ignored) {
+					continue;
+				}
+				listener.deliver(entry.getFrame().toMessage(entry.getDestination()));
+			}
+		}, true);
+		boolean result = r.registeR (record);
+		/* Synchronise P(i), for all i. */
+		r.awaitRegistration();
 		if (result)
-			Utils.out(pid, "Registered.");
+			log.info(pid, "Registered.");
 		return result;
 	}
 	
-	private boolean await (String message) {
-		write(message);
+	private boolean await (Message m) {
+		write(m);
 		return
 			read();
 	}
 	
 	private boolean read () {
+		return (readReply() == 1);
+	}
+	
+	/* Returns 1 on OK, 0 on ERR, or -1 if the connection is closed */
+	private int readReply () {
 		String reply = null;
 		if (socket != null) {
 			try {
 				/* Await reply */
+				if (binary) {
+					int b = in.read();
+					return (b < 0) ? -1 : (b == 1 ? 1 : 0);
+				}
 				reply = b.readLine();
 			} catch (IOException ignored) {}
 		}
 		if (reply == null)
+			return -1;
+		return ((reply.equals("OK")) ? 1 : 0);
+	}
+	
+	private boolean write (Message m) {
+		if (! binary)
+			return write(m.pack());
+		try {
+			m.write(out);
+			out.flush();
+		} catch (IOException e) {
 			return false;
-		return ((reply.equals("OK")) ? true : false);
+		}
+		return true;
 	}
 	
 	private boolean write (String message) {
@@ -141,25 +251,166 @@ class Process {
 	public int getPid () { return pid; }
 	public int getNo  () { return   n; }
 	
+	/*
+	 * The process's clock: the time in msec, virtual if simulated (see
+	 * Simulator). Timers and sleeps should use it rather than the wall
+	 * clock, so that simulated runs take no longer than they have to.
+	 */
+	public long now () {
+		return Simulator.currentTimeMillis();
+	}
+	
+	/* The same in nsec, as System.nanoTime() */
+	public long nanoTime () {
+		return Simulator.nanoTime();
+	}
+	
+	/* Blocks for `millis` msec; only from main() if simulated */
+	public void sleep (long millis) throws InterruptedException {
+		sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+	
+	/* Blocks for `nanos` nsec, or about as long as the OS allows */
+	public void sleepNanos (long nanos) throws InterruptedException {
+		if (Simulator.isRunning()) {
+			Simulator.get().sleepNanos(nanos);
+			return ;
+		}
+		long deadline = System.nanoTime() + nanos;
+		while ((nanos = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, nanos);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+	
+	/*
+	 * Runs `task` once, `delay` msec from now, on a timer thread shared by
+	 * all processes in this JVM (or, if simulated, as an event); it should 
+	 * synchronise with receive() as the two may run at the same time.
+	 */
+	public Future<?> schedule (long delay, Runnable task) {
+		if (Simulator.isRunning())
+			return Simulator.get().schedule(delay, task);
+		return getTimers().schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	private static synchronized ScheduledExecutorService getTimers () {
+		if (timers == null)
+			timers = Executors.newSingleThreadScheduledExecutor(
+				task -> Threads.newThread("Timer", task, true));
+		return timers;
+	}
+	
 	public String getInfo() {
 		String s = null;
 		s = String.format("%s at %s:%d", name, host, port);
 		return s;
 	}
 	
-	public synchronized void receive (Message m) {
+	/*
+	 * Called by the Listener's dispatcher, one message at a time. It is not
+	 * synchronized; an override that is must not wait for acks while it
+	 * holds the monitor (e.g. with unicast() or broadcast()), since that
+	 * pins a virtual thread's carrier (see Utils.VIRTUAL). Send with
+	 * unicastAsync(), broadcastAsync(), etc. instead.
+	 */
+	public void receive (Message m) {
 
-		Utils.out(pid, m.toString()); /* The default action. */
+		if (log.isEnabled(Log.Level.DEBUG)) /* The default action. */
+			log.debug(pid, m.toString());
+	}
+	
+	/*
+	 * Called by the Listener with the messages that arrived since its last
+	 * call, in order. By default, it hands them to receive() one at a time;
+	 * override it to handle a burst of messages at once.
+	 */
+	public void receiveBatch (List<Message> messages) {
+		for (Message m: messages)
+			receive(m);
 	}
 	
 	public boolean unicast (Message m) {
 		boolean drop = false;
 		drop = (m.getDestination() == pid && ! Utils.SELFMSGENABLED);
-		if (! drop)
-			return await(m.pack()); /* write(m.pack()); */
+		if (! drop) {
+			if (relay != null)
+				return request(m);
+			if (reader == null) /* Not registered yet */
+				return await(m); /* write(m); */
+			if (Threads.isVirtual() && Thread.holdsLock(this))
+				pinned();
+			return unicastAsync(m).join();
+		}
 		return false;
 	}
 	
+	private static volatile boolean warned = false;
+	
+	/* Warns, once, of a wait for an ack inside this process's monitor */
+	private void pinned () {
+		if (warned)
+			return ;
+		warned = true;
+		System.err.println(String.format(
+			"Warning: P%d waits for an ack inside a synchronized method, which pins a virtual thread; use unicastAsync().",
+			pid));
+	}
+	
+	/*
+	 * Hands `m` to the Registrar in this JVM. The main thread, the Listener
+	 * (from receive()) and timers may all send at once, but a Relay serves
+	 * one sender at a time, as a Worker does: its due times keep messages
+	 * from overtaking each other.
+	 */
+	private boolean request (Message m) {
+		sending.lock();
+		try {
+			return relay.request(m);
+		} finally {
+			sending.unlock();
+		}
+	}
+	
+	/*
+	 * Sends `m` without waiting for the Registrar's ack. The future 
+	 * completes when the ack arrives; the call itself only blocks if
+	 * Utils.WINDOW messages are already awaiting theirs.
+	 */
+	public CompletableFuture<Boolean> unicastAsync (Message m) {
+		CompletableFuture<Boolean> f = new CompletableFuture<Boolean>();
+		boolean drop = false;
+		drop = (m.getDestination() == pid && ! Utils.SELFMSGENABLED);
+		if (! drop && relay != null) {
+			f.complete(request(m));
+			return f;
+		}
+		if (drop || reader == null) {
+			f.complete(false);
+			return f;
+		}
+		window.acquireUninterruptibly();
+		sending.lock();
+		try {
+			inflight.add(f);
+			/* Once closed, AckReader may be gone; if it did not drain 
+			 * `f`, nothing else will
+			 */
+			if (closed) {
+				if (inflight.remove(f)) {
+					window.release();
+					f.complete(false);
+				}
+				return f;
+			}
+			write(m);
+		} finally {
+			sending.unlock();
+		}
+		return f;
+	}
+	
 	public void broadcast (String type, String payload) {
 		Message m = new Message();
 		m.setSource(pid);
@@ -172,4 +423,105 @@ class Process {
 		} */
 		unicast(m);
 	}
+	
+	public CompletableFuture<Boolean> broadcastAsync (String type, String payload) {
+		return unicastAsync(new Message(pid, -1, type, payload));
+	}
+	
+	/*
+	 * Sends the same message to every neighbour in `group`, in one round 
+	 * trip; the Registrar expands it into one message per member. The
+	 * group must not be empty.
+	 */
+	public boolean multicast (int [] group, String type, String payload) {
+		checkGroup(group);
+		return unicast(new Message(pid, group, type, payload));
+	}
+	
+	public CompletableFuture<Boolean> multicastAsync (int [] group, String type, String payload) {
+		checkGroup(group);
+		return unicastAsync(new Message(pid, group, type, payload));
+	}
+	
+	private static void checkGroup (int [] group) {
+		if (group == null || group.length == 0)
+			throw new IllegalArgumentException("multicast to an empty group");
+	}
+	
+	/*
+	 * Has the oracle check table[1..n], e.g. distances, or next hops with 0
+	 * for "no route"; `type` is Utils.CHECK_COST_TABLE or CHECK_NEXT_TABLE.
+	 * The table goes out in chunks, without waiting for each one's reply. 
+	 * If `post` is set, the Registrar keeps it for a bulk check instead
+	 * (see FaultManager's CHECK command).
+	 */
+	public boolean checkTable (String type, int [] table, boolean post) {
+		ArrayList<CompletableFuture<Boolean>> replies = new ArrayList<CompletableFuture<Boolean>>();
+		for (int first = 1; first <= n; first += RoutingTable.CHUNK) {
+			int count = Math.min(RoutingTable.CHUNK, n - first + 1);
+			String payload = RoutingTable.encode(table, first, count, post ? RoutingTable.POST : 0);
+			replies.add(unicastAsync(new Message(pid, 0, type, payload)));
+		}
+		boolean result = true;
+		for (CompletableFuture<Boolean> f: replies)
+			result &= f.join();
+		return result;
+	}
+	
+	class AckReader implements Runnable { /* Completes asynchronous sends */
+		
+		public void run () {
+			CompletableFuture<Boolean> f;
+			int reply;
+			while ((reply = readReply()) >= 0) {
+				f = inflight.poll();
+				if (f == null) /* Unsolicited */
+					continue;
+				window.release();
+				f.complete(reply == 1);
+			}
+			/* Connection closed; nothing in flight will be acked, nor
+			 * anything sent from now on (see unicastAsync)
+			 */
+			closed = true;
+			while ((f = inflight.poll()) != null) {
+				window.release();
+				f.complete(false);
+			}
+		}
+	}
+	
+	/* Unit tests: unicast() after the Registrar hangs up */
+	public static void main (String [] args) throws Exception {
+		Transport.Server server = Transport.get().listen(Utils.REGISTRAR_PORT, 1);
+		Threads.start("Registrar", () -> {
+			try {
+				Transport.Connection c = server.accept();
+				BufferedReader r = new BufferedReader(new InputStreamReader(c.getInputStream()));
+				PrintWriter w = new PrintWriter(c.getOutputStream());
+				r.readLine();
+				w.println("OK");
+				w.flush();
+				c.close();
+				server.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, true);
+		Process p = new Process("P1", 1, 1);
+		if (! p.registeR()) {
+			System.err.println("Error: not registered.");
+			System.exit(1);
+		}
+		p.reader.join();
+		CompletableFuture<Boolean> f = CompletableFuture.supplyAsync(
+			() -> p.unicast(new Message(1, 0, "TEST", "closed")));
+		try {
+			System.out.println(String.format("unicast() after close: %b", f.get(5, TimeUnit.SECONDS)));
+		} catch (TimeoutException e) {
+			System.err.println("Error: unicast() after close blocks.");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
 }
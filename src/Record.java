@@ -8,6 +8,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class Record {
 	
@@ -17,8 +18,20 @@ public class Record {
 	
 	private boolean faulty;
 	
+	/* True if this process agreed to binary framing at registration */
+	private boolean binary;
+	
 	/* Messages awaiting to be delivered */
-	private PriorityBlockingQueue<MessageEntry> queue;
+	private DeliveryQueue queue;
+	
+	/* Called whenever a message is queued (see Outbox); set by the event
+	 * loop, read by senders. Volatile, so that a sender either sees it
+	 * or queues its message before the loop's first drain.
+	 */
+	private volatile Runnable notifier;
+	
+	/* Messages this process has sent, relayed or not (see Metrics) */
+	private LongAdder relayed;
 	
 	public Record (String name, String host, int port) {
 		this.name = name;
@@ -26,12 +39,31 @@ public class Record {
 		this.port = port;
 		/* By default, the process is correct */
 		faulty = false;
-		queue = new PriorityBlockingQueue<MessageEntry>(Utils.MSG_QUEUE_SIZE);
+		binary = false;
+		queue = new DeliveryQueue();
+		notifier = null;
+		relayed = new LongAdder();
 	}
 	
-	public PriorityBlockingQueue<MessageEntry> getQueue() {
+	public void countRelayed () { relayed.increment(); }
+	
+	public long getRelayed () { return relayed.sum(); }
+	
+	public DeliveryQueue getQueue() {
 		return queue;
 	}
+	
+	public void setNotifier (Runnable notifier) {
+		this.notifier = notifier;
+	}
+	
+	/* Queues `entry` for delivery to this process */
+	public void put (MessageEntry entry) {
+		queue.put(entry);
+		Runnable n = notifier;
+		if (n != null)
+			n.run();
+	}
 
 	public boolean isFaulty() {
 		return faulty;
@@ -41,6 +73,12 @@ public class Record {
 		this.faulty = faulty;
 	}
 	
+	public boolean isBinary () { return binary; }
+	
+	public void setBinary (boolean binary) {
+		this.binary = binary;
+	}
+	
 	public String getName () { return name; }
 	public String getHost () { return host; }
 	public int    getPort () { return port; }
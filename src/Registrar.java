@@ -5,21 +5,26 @@
  */
 
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 import java.util.*;
 import java.net.*;
+import java.nio.channels.*;
 import java.io.*;
 
 public class Registrar {
 	
 	public static final int pid = 0; /* P0 is reserved for this server */
 	
+	private static final Log log = Log.get("Registrar");
+	
 	/* The size of the system */
 	public int n;
 	
 	/* The "switch" table */
 	private ConcurrentHashMap<String, Record> registry;
+	/* The same, indexed by pid; filled in before the registration barrier */
+	private Record [] records;
 	
 	/* The one process that is never suspected */
 	private int coordinator;
@@ -27,38 +32,85 @@ public class Registrar {
 	List<Integer> F;
 	Random random;
 	
-	/* A lock as a barrier to synchronise all clients */
-	private Object lock;
+	/* A lock as a barrier to synchronise all clients; not a monitor, so
+	 * that waiting does not pin virtual threads (see Threads)
+	 */
+	private ReentrantLock lock;
+	private Condition registered;
+	
+	/* Callbacks awaiting registration of all clients (see Session) */
+	private List<Runnable> waiting;
+	
+	/* When this server started, and how long (nsec) it took until all
+	 * clients had registered; or -1, until they have
+	 */
+	private long started;
+	private long registeredIn;
 	
 	public RoutingOracle oracle;
 	
-	/* Message statistics */
-	private final ConcurrentMap<String,AtomicLong> stats =
-		new ConcurrentHashMap<String,AtomicLong>();
+	/* Holds relayed messages until their link delay has elapsed */
+	private DelayScheduler scheduler;
+	
+	/* Selector loops, if Utils.NIO is set */
+	private EventLoop [] loops;
+	private int next;
+	
+	/* Routing tables posted for a bulk check (see verify); indexed 
+	 * from 0, like the oracle. Entries not posted are UNPOSTED, since -1
+	 * is a next hop too ("no route").
+	 */
+	private static final int UNPOSTED = Integer.MIN_VALUE;
+	private int [][] costs;
+	private int [][] hops;
+	private Object posted;
+	
+	/* Message statistics, per link; made with the oracle */
+	private volatile Traffic traffic;
 	
 	public Registrar(int n, String filename) {
 		
 		this.n = n;
 		registry = new ConcurrentHashMap<String, Record>(n, 0.9f, n);
+		records = new Record[n + 1];
+		
+		costs = new int[n][];
+		hops = new int[n][];
+		posted = new Object();
 		
 		/* Synchronize worker threads and, consequently, Process.registeR() */
-		lock = new Object();
+		lock = new ReentrantLock();
+		registered = lock.newCondition();
+		waiting = new ArrayList<Runnable>();
+		registeredIn = -1;
 		
-		/* Fault management */
-		(new Thread(new FaultManager(this))).start();
+		/* Link delays; simulated ones are events instead (see Relay) */
+		scheduler = new DelayScheduler();
+		if (! Simulator.isRunning())
+			scheduler.start();
 		
-		/* Periodic measurements */
-		if (Utils.COLLECTSTATS)
-			(new Thread(new PeriodicPrinter(this))).start();
+		/* Neither runs in virtual time (see Simulator), nor if turned off */
+		if (Utils.SERVICES && ! Simulator.isRunning()) {
+			/* Fault management */
+			Threads.start("FaultManager", new FaultManager(this), true);
+			
+			/* Periodic measurements */
+			if (Utils.COLLECTSTATS)
+				Threads.start("PeriodicPrinter", new PeriodicPrinter(this), true);
+			
+			/* Live ones, on request */
+			if (Utils.METRICS_PORT > 0)
+				Metrics.start(this, Utils.METRICS_PORT);
+		}
 		
 		/* Consensus with strong failure detectors */
 		coordinator = -1;
 		F = new ArrayList<Integer>();
-		random = new Random();
+		random = Simulator.newRandom();
 
 		if (Utils.accuracy == Utils.Accuracy.WEAK) {
 			coordinator = random.nextInt(n) + 1; /* nextInt belongs in [0,n) */
-			Utils.out(pid, String.format("The rotating coordinator is %d.", coordinator));
+			log.info(pid, String.format("The rotating coordinator is %d.", coordinator));
 		} else
 		if (Utils.accuracy == Utils.Accuracy.EVENTUALLY_WEAK) {
 			int max = (int) Math.floor((double) n / 3.);
@@ -68,7 +120,7 @@ public class Registrar {
 				if (! F.contains(p))
 					F.add(p);
 			} while (F.size() < max);
-			Utils.out(pid, String.format("Set F contains: %s.", F.toString()));
+			log.info(pid, String.format("Set F contains: %s.", F.toString()));
 			} else {
 				System.out.println("Warning: cannot simulate eventually strong failure detectors.");
 			}
@@ -78,40 +130,104 @@ public class Registrar {
 		oracle = new RoutingOracle(n, filename);
 		if (! oracle.reset()) 
 			System.out.println("Warning: approximate oracle.");
-		Utils.out(pid, String.format("|V| = %d, |E| = %d", oracle.getV(), oracle.getE()));
+		log.info(pid, String.format("|V| = %d, |E| = %d", oracle.getV(), oracle.getE()));
+		traffic = new Traffic(oracle);
+		
+		/* Registration is timed from here on */
+		started = Simulator.nanoTime();
 	}
 	
 	public int getCoordinator() { return coordinator; }
 	public boolean isResilient(int id) { return (! F.contains(id)); }
 	
-	public void incStats (String key) { /* Increments message `key` count */
-		AtomicLong value;
-		AtomicLong count = stats.get(key);
-		if (count == null) {
-			count = new AtomicLong(0);
-			value = stats.putIfAbsent(key, count);
-			if (value != null)
-				count = value;
-		}
-		count.incrementAndGet();
-		return ;
+	/* Null until the oracle is built; see PeriodicPrinter and Metrics */
+	public Traffic getTraffic () { return traffic; }
+	
+	public Map<String, Long> getStats () { /* Returns all counts, by key */
+		Traffic t = traffic;
+		return (t == null) ? new TreeMap<String, Long>() : t.getCounts();
 	}
 	
 	public long getStats (String key) { /* Returns message `key` count */
-		AtomicLong count;
-		count = stats.get(key);
-		return (count == null) ? 0 : count.get();
+		Traffic t = traffic;
+		return (t == null) ? 0 : t.getCount(key);
+	}
+	
+	/* Blocks until all processes have registered */
+	public void awaitRegistration () {
+		lock.lock();
+		try {
+			while (! areRegistered())
+				registered.awaitUninterruptibly();
+		} finally {
+			lock.unlock();
+		}
 	}
 	
-	public Object getLock () { return lock; }
+	public DelayScheduler getScheduler () { return scheduler; }
+	
+	/* Time (msec) from start-up until all processes registered; or -1 */
+	public long getRegistrationTime () {
+		lock.lock();
+		try {
+			return (registeredIn < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(registeredIn);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/* Creates Utils.READY, if set, once connections are accepted */
+	private static void ready () {
+		if (Utils.READY == null)
+			return ;
+		File file = new File(Utils.READY);
+		try {
+			file.createNewFile();
+			file.deleteOnExit();
+		} catch (IOException e) {
+			System.err.println(String.format("Warning: cannot create %s.", Utils.READY));
+			System.err.println(e.getMessage());
+		}
+	}
 	
 	private void tryNotify () {
-		synchronized (lock) {
-			if (areRegistered()) /* If all processes have registered, notify them */
-				lock.notifyAll();
+		List<Runnable> ready = null;
+		lock.lock();
+		try {
+			if (areRegistered()) { /* If all processes have registered, notify them */
+				if (registeredIn < 0) {
+					registeredIn = Simulator.nanoTime() - started;
+					log.info(pid, String.format("All %d processes registered in %.3f s.",
+						n, registeredIn / 1e9));
+				}
+				registered.signalAll();
+				ready = new ArrayList<Runnable>(waiting);
+				waiting.clear();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (ready != null)
+			for (Runnable callback: ready)
+				callback.run();
+	}
+	
+	/* Non-blocking counterpart of awaitRegistration() */
+	public void whenRegistered (Runnable callback) {
+		lock.lock();
+		try {
+			if (! areRegistered()) {
+				waiting.add(callback);
+				return ;
+			}
+		} finally {
+			lock.unlock();
 		}
+		callback.run();
 	}
 	
+	public int getRegistered () { return registry.size(); }
+	
 	public boolean areRegistered () { /* The condition for synchronisation */
 		return (registry.size() == n);
 	}
@@ -120,6 +236,7 @@ public class Registrar {
 	public boolean registeR (Record record) {
 		String key = record.getName();
 		Record result = registry.put(key, record);
+		index(record);
 		/* Synchronize */
 		tryNotify ();
 		return (result == null) ? true : false; 
@@ -132,6 +249,7 @@ public class Registrar {
 		int p = Integer.parseInt(P);
 		
 		registry.put(key, record);
+		index(record);
 		
 		/* Notify the oracle. */
 		if (record.isFaulty()) {
@@ -141,7 +259,97 @@ public class Registrar {
 		}
 	}
 	
+	private void index (Record record) {
+		int p;
+		try {
+			p = Integer.parseInt(record.getName().substring(1)); /* Skip `P` */
+		} catch (NumberFormatException e) {
+			return ;
+		}
+		if (p > 0 && p <= n)
+			records[p] = record;
+	}
+	
+	/* Fails (or repairs) the link between processes `a` and `b` */
+	public boolean updateLink (String a, String b, boolean faulty) {
+		int p = Integer.parseInt(a.substring(1)); /* Skip `P` */
+		int q = Integer.parseInt(b.substring(1));
+		if (faulty)
+			return oracle.removeLink(p -1, q -1);
+		return oracle.repairLink(p -1, q -1);
+	}
+	
+	/* Keeps a chunk of p's distances (or next hops) for verify() */
+	public boolean post (int p, String type, RoutingTable t) {
+		int [] values = t.getValues();
+		int first = t.getFirst() - 1;
+		if (p < 1 || p > n || first < 0 || first + values.length > n)
+			return false;
+		boolean next = type.equals(Utils.CHECK_NEXT_TABLE);
+		synchronized (posted) {
+			int [][] tables = next ? hops : costs;
+			if (tables[p - 1] == null) {
+				tables[p - 1] = new int[n];
+				Arrays.fill(tables[p - 1], UNPOSTED);
+			}
+			for (int i = 0; i < values.length; i++) /* Next hops are pids */
+				tables[p - 1][first + i] = next ? values[i] - 1 : values[i];
+		}
+		return true;
+	}
+	
+	/* Checks all posted tables against the oracle, in one parallel pass;
+	 * those with entries not posted are wrong, as incomplete, unchecked
+	 */
+	public String verify () {
+		int [][] c, h;
+		int costCount = 0, hopCount = 0;
+		boolean [] incomplete = new boolean[n];
+		synchronized (posted) {
+			c = costs.clone();
+			h = hops.clone();
+			for (int p = 0; p < n; p++) {
+				if (c[p] != null) costCount ++;
+				if (h[p] != null) hopCount  ++;
+				if (isIncomplete(c[p])) { c[p] = null; incomplete[p] = true; }
+				if (isIncomplete(h[p])) { h[p] = null; incomplete[p] = true; }
+			}
+		}
+		long start = System.nanoTime();
+		boolean [] wrongCosts = oracle.areShortestPaths(c);
+		boolean [] wrongHops  = oracle.areBestNextHops(h);
+		long elapsed = System.nanoTime() - start;
+		
+		StringBuilder wrong = new StringBuilder();
+		for (int p = 0; p < n; p++) {
+			if (incomplete[p])
+				wrong.append(String.format(" P%d (incomplete)", p + 1));
+			else
+			if (wrongCosts[p] || wrongHops[p])
+				wrong.append(String.format(" P%d", p + 1));
+		}
+		String s = String.format(
+			"Checked %d distance and %d next hop tables in %.1f msec; wrong:%s", 
+			costCount, hopCount, elapsed / 1000000., (wrong.length() == 0) ? " none" : wrong);
+		log.info(pid, s);
+		return s;
+	}
+	
+	private static boolean isIncomplete (int [] table) {
+		if (table == null)
+			return false;
+		for (int v: table)
+			if (v == UNPOSTED)
+				return true;
+		return false;
+	}
+	
 	public Record find (int pid) {
+		if (pid > 0 && pid <= n) {
+			Record record = records[pid];
+			if (record != null)
+				return record;
+		}
 		String key;
 		key = String.format("P%d", pid);
 		return find(key);
@@ -157,8 +365,53 @@ public class Registrar {
 		return registry.containsKey(key);
 	}
 	
-	private void handle (Socket client) {
-		new Thread(new Worker(client, this)).start();
+	private void handle (Transport.Connection client) {
+		Threads.start("Worker", new Worker(client, this), true);
+	}
+	
+	private void handle (SocketChannel client) {
+		EventLoop loop = loops[next++ % loops.length];
+		Session session = new Session(client, this, loop);
+		loop.execute(() -> session.start());
+	}
+	
+	private void startLoops () throws IOException {
+		loops = new EventLoop[Utils.EVENT_LOOPS];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(i);
+			loops[i].start();
+		}
+		next = 0;
+	}
+	
+	/* Utils.NIO: the same as main(), only with selector loops */
+	private void serve () {
+		
+		ServerSocketChannel serverchannel = null;
+		boolean done = false;
+		try {
+			serverchannel = Transport.get().bind(Utils.REGISTRAR_PORT, Math.max(n, Utils.BACKLOG));
+			startLoops();
+		
+		} catch (IOException e) {
+			System.err.println("Error: failure to launch registrar.");
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		ready();
+		
+		while (! done) {
+			SocketChannel clientchannel = null;
+			try {
+				clientchannel = serverchannel.accept();
+			
+			} catch (IOException e) {
+				System.err.println("Error: failure to accept connection at Registrar.");
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+			handle(clientchannel);
+		}
 	}
 	
 	public static void main(String[] args) {
@@ -178,21 +431,27 @@ public class Registrar {
 		}
 		
 		Registrar server = new Registrar(n, filename);
-		Utils.out(server.pid, String.format("Registrar started; n = %d.",n));
+		log.info(server.pid, String.format("Registrar started; n = %d.",n));
+		
+		if (Utils.NIO) {
+			server.serve();
+			return ;
+		}
 		
-		ServerSocket serversocket = null;
+		Transport.Server serversocket = null;
 		boolean done = false;
 		try {
-			serversocket = new ServerSocket(Utils.REGISTRAR_PORT, n);
+			serversocket = Transport.get().listen(Utils.REGISTRAR_PORT, Math.max(n, Utils.BACKLOG));
 		
 		} catch (IOException e) {
 			System.err.println("Error: failure to launch registrar.");
 			System.err.println(e.getMessage());
 			System.exit(1);
 		}
+		ready();
 		
 		while (! done) {	
-			Socket clientsocket = null;
+			Transport.Connection clientsocket = null;
 			try {
 				clientsocket = serversocket.accept();
 			
@@ -0,0 +1,298 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * The Registrar-side logic that relays messages on behalf of one process,
+ * independent of how that process is connected (see Worker and Session).
+ */
+public class Relay {
+
+	private static final Log log = Log.get("Relay");
+
+	private Registrar r;
+	private int myprocess;
+	
+	/* Random delay generator */
+	Random random;
+	private static final double mean = (double) Utils.DELAY;
+	private static final double stdv = Utils.STDEV;
+	
+	/* The time (nsec) at which the last message relayed is due */
+	private long due;
+	
+	/* Throughput measurements */
+	private long count;
+	private long _t_recv;
+	
+	public Relay (Registrar r) {
+		this.r = r;
+
+		myprocess = Utils.INFINITY;
+		
+		random = Simulator.newRandom();
+		
+		due = 0;
+		count = 0;
+	}
+	
+	public int getProcess () { return myprocess; }
+	
+	public void setProcess (int myprocess) { this.myprocess = myprocess; }
+	
+	private void unicast (Frame f, int type, int dst, long due) {
+		
+		int src = f.getSource();
+		
+		Record source = r.find (src);
+		Record destination = r.find (dst);
+		
+		if ((source == null) || (destination == null)) {
+			/* In this unlikely event. */
+			String msg =
+				String.format("Error: link <P%d, P%d> does not exist.", 
+			src, dst);
+			System.err.println(msg);
+			System.exit(1);
+		}
+		
+		/* Utils.out(r.pid, String.format("%s > %s", source, destination)); */
+		if (! source.isFaulty() && ! destination.isFaulty()) {
+			if (Utils.accuracy == Utils.Accuracy.WEAK) {
+				if (src != r.getCoordinator())
+					return ;
+			} else
+			if (Utils.accuracy == Utils.Accuracy.EVENTUALLY_WEAK) {
+				if (! r.isResilient(src))
+					return ; 
+			}
+			/* Message statistics */
+			r.getTraffic().count(src, dst, type, f.getSize(dst, destination.isBinary()));
+			MessageEntry entry = 
+				new MessageEntry(f, dst, Utils.getPriority(f.getType()), Simulator.currentTimeMillis());
+			/* Released into the destination's queue when due */
+			if (Simulator.isRunning())
+				Simulator.get().deliver(dst, destination, entry, due);
+			else
+				r.getScheduler().schedule(destination, entry, due);
+		}
+		return ;
+	}
+	
+	/*
+	 * A process p can ask the oracle whether its computed
+	 * routing distances are optimal or not.
+	 */
+	public boolean areShortestPaths (String s) {
+		boolean result = true;
+		int U = r.n + 1; /* Upper and lower bounds */
+		int L = 0;
+		int answer;
+		String [] t;
+		int v, d;
+		/* Only p's own row is needed; fetch it once */
+		int [] distances = r.oracle.getDistances(myprocess -1);
+		
+		/* Parse message payload */
+		String [] token = s.split(";");
+		
+		for (int i = 0; i < token.length; i++) {
+			/* Routing table entry */
+			t = token[i].split(":");
+
+			v = Integer.parseInt(t[0]); /* destination */
+			d = Integer.parseInt(t[1]); /* cost */
+			
+			if (v < (L + 1) || v > (U - 1)) {
+				log.error(String.format("Error: c(%2d,%2d) is out of scope", myprocess, v));
+				result = false;
+				break;
+			} else {
+				/* Query oracle */
+				answer = distances[v -1];
+				if (answer != d) {
+					/* What if INF values do not agree? */
+					if (answer >= r.n && d >= r.n)
+						continue;
+					result = false;
+					log.error(String.format("Error: c(%2d,%2d) != %d (oracle says %d)", myprocess, v, d, answer));
+					break;
+				}
+			}
+		}
+		/* if (result) Utils.out("OK"); */
+		return result;
+	}
+	
+	/*
+	 * A process p can ask the oracle whether its computed
+	 * next hops are optimal or not.
+	 */
+	public boolean areBestNextHops (String s) {
+		boolean result = true;
+		int U = r.n + 1; /* Upper and lower bounds */
+		int L = 0;
+		boolean answer;
+		String [] t;
+		int v, w;
+		/* Parse message payload */
+
+		String [] token = s.split(";");
+		
+		for (int i = 0; i < token.length; i++) {
+			/* Routing table entry */
+			t = token[i].split(":");
+
+			v = Integer.parseInt(t[0]); /* destination */
+			w = Integer.parseInt(t[1]); /* next */
+			if (
+				(v < (L + 1) || v > (U - 1)) ||
+				(w < (L + 1) || w > (U - 1))
+			) {
+				result = false;
+				break;
+			} else {
+				/* Query oracle */
+				answer = r.oracle.isBestNextHop(myprocess -1, v -1, w -1);
+				if (! answer) {
+					result = answer;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/*
+	 * Checks one chunk of p's routing table (see RoutingTable); or, if
+	 * it is posted, keeps it for a bulk check (see Registrar.verify).
+	 */
+	public boolean checkTable (String type, String payload) {
+		RoutingTable t = RoutingTable.decode(payload);
+		if (t == null)
+			return false;
+		if (t.isPost())
+			return r.post(myprocess, type, t);
+		int [] values = t.getValues();
+		if (type.equals(Utils.CHECK_COST_TABLE))
+			return r.oracle.areShortestPaths(myprocess -1, t.getFirst() -1, values);
+		/* Next hops are pids; 0 stands for "no route" */
+		int [] hops = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			hops[i] = values[i] -1;
+		return r.oracle.areBestNextHops(myprocess -1, t.getFirst() -1, hops);
+	}
+	
+	private int getDelay () {
+		int d;
+		double x;
+		int y;
+		if (Utils.GAUSSIAN) {
+			x = (random.nextGaussian() * stdv) + mean;
+			y = (int) Math.round(x);
+			if (y < 0)
+				d = 0;
+			else
+				d = y;
+		} else
+			d = Utils.DELAY;
+		return d;
+	}
+	
+	/* 
+	 * Messages from the same source never overtake each other,
+	 * even when link delays are Gaussian.
+	 */
+	private long getDueTime () {
+		long t = Simulator.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getDelay());
+		if (t < due)
+			t = due;
+		due = t;
+		return t;
+	}
+	
+	public void deliver (Message m) {
+		int source = m.getSource();
+		int destination = m.getDestination();
+		/* Looked up once, however many links it is counted on */
+		int type = r.getTraffic().getType(m.getType());
+		if (m.isMulticast()) {
+			/* Encoded once, queued for every group member that is a neighbour */
+			int [] group = m.getGroup();
+			Frame f = null;
+			long t = 0;
+			for (int i = 0; i < group.length; i++) {
+				if (group[i] == source && ! Utils.SELFMSGENABLED)
+					continue;
+				if (! r.oracle.areNeighbours(source -1, group[i] -1))
+					continue;
+				if (f == null) { /* All members receive it at the same time */
+					f = new Frame(m);
+					t = getDueTime();
+				}
+				unicast(f, type, group[i], t);
+			}
+		} else
+		if (destination != -1) {
+			/* Check if source and destination are neighbours. */
+			if (r.oracle.areNeighbours(source -1, destination -1))
+				unicast(new Frame(m), type, destination, getDueTime());
+		} else {
+			/* Broadcast; encoded once, queued for every neighbour. */
+			int [] neighbours = r.oracle.getAdjacency(source -1);
+			if (neighbours.length == 0)
+				return ;
+			Frame f = new Frame(m);
+			/* All neighbours receive it at the same time */
+			long t = getDueTime();
+			for (int i = 0; i < neighbours.length; i++)
+				unicast(f, type, neighbours[i] + 1, t);
+		}
+	}
+	
+	/*
+	 * Answers any request but registration: an oracle query, or else a 
+	 * message to relay; see Worker.run().
+	 */
+	public boolean request (Message m) {
+		if (m.getDestination() == r.pid) {
+			String type = m.getType();
+			if (type.equals(Utils.CHECK_COST))
+				return areShortestPaths(m.getPayload());
+			if (type.equals(Utils.CHECK_NEXT))
+				return areBestNextHops(m.getPayload());
+			if (type.equals(Utils.CHECK_COST_TABLE) || type.equals(Utils.CHECK_NEXT_TABLE))
+				return checkTable(type, m.getPayload());
+		}
+		relay(m);
+		/* Assumes always correct. */
+		return true;
+	}
+	
+	/* Relays message `m` and accounts for it */
+	public void relay (Message m) {
+		long t__recv, dt;
+		double rate;
+		
+		count += 1;
+		Record source = r.find(myprocess);
+		if (source != null)
+			source.countRelayed();
+		if (count == 1)
+			_t_recv = Simulator.currentTimeMillis();
+		if (count % Utils.STEP == 0) {
+			t__recv = Simulator.currentTimeMillis();
+			dt = t__recv - _t_recv;
+			rate = (double) (Utils.STEP * 1000) / (double) dt;
+			log.debug(r.pid, String.format("[W %03d][RECV] %06d\t%10.1f", 
+				myprocess, count, rate));
+			_t_recv = t__recv;
+		}
+		deliver (m);
+	}
+}
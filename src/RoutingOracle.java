@@ -9,19 +9,61 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 public class RoutingOracle {
 	
-	/* cost[u][v] is the length of the shortest path from v to w */
-	private int [][] cost;
+	private static final Log log = Log.get("RoutingOracle");
 	
-	/* Edges, read from file */
-	private int [][] edge;
+	/* cost(u, v) is the length of the shortest path from u to v; last(u, v)
+	 * and next(u, v) are the hops before v, and after u, on that path.
+	 * See Utils.ORACLE_STORE.
+	 */
+	private Matrix cost;
+	private Matrix last;
+	private Matrix next;
 	
-	private int [][] last;
-	private int [][] next;
+	/* In lazy mode, the matrices above are not used; rows are computed
+	 * when first asked for, and the most recently used ones are cached.
+	 * A cached row is valid as long as its epoch is current; topology
+	 * changes start a new epoch. It is the only mode for graphs larger
+	 * than Utils.ORACLE_EAGER_MAX, since the matrices are dense.
+	 */
+	private boolean lazy;
+	private LinkedHashMap<Integer, Row> cache;
+	private volatile long epoch;
+	private AtomicLong hits, misses;
 	
-	private Hashtable<Integer, ArrayList<Integer>> nodes;
+	/* Recomputations (reset, remove, etc.) so far; their total and last 
+	 * duration (nsec)
+	 */
+	private AtomicLong updates, updateTime;
+	private volatile long lastUpdateTime;
+	
+	/* Edges, read from file, in compressed sparse row form: u's neighbours 
+	 * are target[offset[u]] ... target[offset[u+1] - 1], in ascending order.
+	 * Each such slot is `live` unless the link or one of its ends has failed.
+	 */
+	private int [] offset;
+	private int [] target;
+	private boolean [] live;
+	private boolean [] failed; /* Links */
+	private boolean [] removed; /* Processes */
+	
+	/* Set if some link (u, v) has no (v, u); see remove() */
+	private boolean directed;
+	
+	/* adjacency[u] lists u's current neighbours; see Relay.deliver() */
+	private int [][] adjacency;
+	
+	/* Rows are independent, so they are computed and checked in parallel;
+	 * each thread that does so keeps its own scratch space (see Rows)
+	 */
+	private ForkJoinPool pool;
+	private static final int ROWS_PER_TASK = 16;
+	private ThreadLocal<Scratch> scratch;
 	
 	/* G = (V, E) */
 	private int _V_;
@@ -36,12 +78,31 @@ public class RoutingOracle {
 		INV = _V_;
 		_E_ = 0;
 		
-		cost = new int[_V_][_V_];
-        edge = new int[_V_][_V_];
-        last = new int[_V_][_V_];
-        next = new int[_V_][_V_];
+		lazy = Utils.ORACLE_LAZY || _V_ > Utils.ORACLE_EAGER_MAX;
+		if (lazy && ! Utils.ORACLE_LAZY)
+			log.info(String.format("%d processes; computing routes lazily (see Utils.ORACLE_EAGER_MAX)", _V_));
+		if (lazy) {
+			cache = new LinkedHashMap<Integer, Row>(16, 0.75f, true) {
+				protected boolean removeEldestEntry (Map.Entry<Integer, Row> eldest) {
+					return size() > Utils.ORACLE_CACHE;
+				}
+			};
+			epoch = 0;
+		} else {
+			cost = new Matrix(_V_, _V_, INF, Utils.ORACLE_STORE);
+			last = new Matrix(_V_, _V_, INV, Utils.ORACLE_STORE);
+			next = new Matrix(_V_, _V_, INV, Utils.ORACLE_STORE);
+		}
+		hits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		updates = new AtomicLong(0);
+		updateTime = new AtomicLong(0);
+		lastUpdateTime = 0;
+		
+		removed = new boolean[_V_];
 		
-		nodes = new Hashtable<Integer, ArrayList<Integer>>();
+		pool = new ForkJoinPool(Utils.ORACLE_THREADS);
+		scratch = ThreadLocal.withInitial(() -> new Scratch(_V_));
 		
 		/* Initialise edges 
 		 *
@@ -50,97 +111,405 @@ public class RoutingOracle {
 		 */
 		load (filename);
 
-		if (! isGraphUndirected())
-			Utils.out("Warning: graph is directed\n");
+		directed = ! isGraphUndirected();
+		if (directed)
+			log.warn("Warning: graph is directed");
+		
+		adjacency = new int[_V_][];
+		for (int u = 0; u < _V_; u++)
+			updateAdjacency(u);
+	}
+	
+	private void updateAdjacency (int u) {
+		int count = 0;
+		for (int i = offset[u]; i < offset[u + 1]; i++)
+			if (live[i])
+				count ++;
+		int [] a = new int[count];
+		count = 0;
+		for (int i = offset[u]; i < offset[u + 1]; i++)
+			if (live[i])
+				a[count++] = target[i];
+		adjacency[u] = a;
 	}
 	
 	public int getV() { return _V_;     }
 	/* |E| = E / 2 because graph G is an undirected graph */
 	public int getE() { return _E_ / 2; }
 	
+	/* All-pairs shortest paths, by one BFS per source: O(V(V + E)) */
 	public boolean reset() {
-
-		initialise();
-		computeShortestPaths(); /* Compute last [][] */
-		computeRoutingTables(); /* Compute next [][] */
 		
-		return check();
+		long t = System.nanoTime();
+		try {
+			if (lazy) { /* Nothing to do until asked */
+				synchronized (cache) {
+					cache.clear();
+					epoch ++;
+				}
+				return true;
+			}
+			
+			forEachRow(null, (s, queue, row) -> { bfs(s, queue, row); return true; });
+			
+			return check();
+		} finally {
+			timed(t);
+		}
+	}
+	
+	private void timed (long start) {
+		long t = System.nanoTime() - start;
+		updates.incrementAndGet();
+		updateTime.addAndGet(t);
+		lastUpdateTime = t;
+	}
+	
+	public long getUpdates () { return updates.get(); }
+	public long getUpdateTime () { return updateTime.get(); }
+	public long getLastUpdateTime () { return lastUpdateTime; }
+	
+	/* Sets the number of threads used by reset(), remove(), etc. */
+	public void setThreads (int threads) {
+		pool.shutdown();
+		pool = new ForkJoinPool(threads);
+	}
+	
+	interface RowTask {
+		/* Returns false if row s is found to be wrong; `queue` and `row` 
+		 * are scratch space, or null if the task was run without
+		 */
+		boolean run (int s, int [] queue, Row row);
+	}
+	
+	/* A BFS queue and a row, reused by every task its thread runs */
+	static class Scratch {
+		
+		int [] queue;
+		Row row;
+		
+		Scratch (int V) {
+			queue = new int[V];
+			row = new Row(V, 0);
+		}
+	}
+	
+	/* Runs `task` on each row s for which rows[s] is set (or on all rows, if
+	 * `rows` is null); returns false if any of them did. Tasks that do not
+	 * need scratch space get none.
+	 */
+	private boolean forEachRow (boolean [] rows, RowTask task) {
+		return forEachRow(rows, task, true);
+	}
+	
+	private boolean forEachRow (boolean [] rows, RowTask task, boolean space) {
+		AtomicBoolean result = new AtomicBoolean(true);
+		Rows action = new Rows(0, _V_, rows, task, space, result);
+		if (_V_ <= ROWS_PER_TASK || pool.getParallelism() == 1)
+			action.compute();
+		else
+			pool.invoke(action);
+		return result.get();
+	}
+	
+	class Rows extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private int lo, hi;
+		private boolean [] rows;
+		private RowTask task;
+		private boolean space;
+		private AtomicBoolean result;
+		
+		Rows (int lo, int hi, boolean [] rows, RowTask task, boolean space, AtomicBoolean result) {
+			this.lo = lo;
+			this.hi = hi;
+			this.rows = rows;
+			this.task = task;
+			this.space = space;
+			this.result = result;
+		}
+		
+		protected void compute () {
+			if (hi - lo > ROWS_PER_TASK) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(
+					new Rows(lo, mid, rows, task, space, result), 
+					new Rows(mid, hi, rows, task, space, result));
+				return ;
+			}
+			Scratch x = null; /* Fetched once a row needs it */
+			for (int s = lo; s < hi && result.get(); s++) {
+				if (rows != null && ! rows[s])
+					continue;
+				if (space && x == null)
+					x = scratch.get();
+				boolean ok = (x == null) ? task.run(s, null, null) : task.run(s, x.queue, x.row);
+				if (! ok)
+					result.set(false);
+			}
+		}
 	}
 	
+	/*
+	 * Failures and repairs only recompute the rows of the distance
+	 * matrix they can affect, with one BFS each (see update()).
+	 */
 	public boolean remove (int w) {
-		Integer key = new Integer(w);
-		if (nodes.containsKey(key))
+		if (w < 0 || w >= _V_ || removed[w])
 			return false;
-		ArrayList<Integer> values = getNeighbours(w);
-		nodes.put(key, values);
-		for (Integer U: values) {
-			int u = U.intValue();
-			edge[u][w] = 0;
-			edge[w][u] = 0;
-		}
-		return reset (); /* Hm. Too expensive, needs more work. */
+		removed[w] = true;
+		ArrayList<int []> links = new ArrayList<int []>();
+		for (int v: adjacency[w])
+			links.add(new int [] { w, v });
+		/* Links into w that have no link back are not among them */
+		if (directed)
+			for (int u = 0; u < _V_; u++) {
+				int i = slot(u, w);
+				if (i >= 0 && live[i] && slot(w, u) < 0)
+					links.add(new int [] { u, w });
+			}
+		return update (links.toArray(new int[0][]), false);
 	}
 	
 	public boolean repair (int w) {
-		Integer key = new Integer(w);
-		if (! nodes.containsKey(key))
+		if (w < 0 || w >= _V_ || ! removed[w])
+			return false;
+		removed[w] = false;
+		ArrayList<int []> links = new ArrayList<int []>();
+		for (int i = offset[w]; i < offset[w + 1]; i++)
+			if (isUp(w, target[i]))
+				links.add(new int [] { w, target[i] });
+		if (directed)
+			for (int u = 0; u < _V_; u++)
+				if (slot(u, w) >= 0 && slot(w, u) < 0 && isUp(u, w))
+					links.add(new int [] { u, w });
+		return update (links.toArray(new int[0][]), true);
+	}
+	
+	/* Fails link (u, v), if it exists */
+	public boolean removeLink (int u, int v) {
+		int i = slot(u, v);
+		if (i < 0 || failed[i])
+			return false;
+		failed[i] = true;
+		int j = slot(v, u); /* None, if G is directed */
+		if (j >= 0)
+			failed[j] = true;
+		if (! live[i]) /* Already down with one of its ends */
+			return true;
+		return update (new int [][] { { u, v } }, false);
+	}
+	
+	public boolean repairLink (int u, int v) {
+		int i = slot(u, v);
+		if (i < 0 || ! failed[i])
 			return false;
-		ArrayList<Integer> values = nodes.remove(key);
-		for (Integer U: values) {
-			int u = U.intValue();
-			edge[u][w] = 1;
-			edge[w][u] = 1;
+		failed[i] = false;
+		int j = slot(v, u);
+		if (j >= 0)
+			failed[j] = false;
+		if (! isUp(u, v))
+			return true;
+		return update (new int [][] { { u, v } }, true);
+	}
+	
+	/* Returns the index of (u, v) in target[], or -1 if there is no such link */
+	private int slot (int u, int v) {
+		if (u < 0 || u >= _V_ || v < 0 || v >= _V_)
+			return -1;
+		int i = Arrays.binarySearch(target, offset[u], offset[u + 1], v);
+		return (i < 0) ? -1 : i;
+	}
+	
+	/* Brings link l = (u, v) and, if there is one, (v, u) up or down */
+	private void setLive (int [] l, boolean up) {
+		int i = slot(l[0], l[1]);
+		if (i >= 0)
+			live[i] = up;
+		int j = slot(l[1], l[0]);
+		if (j >= 0)
+			live[j] = up;
+	}
+	
+	private boolean isUp (int u, int v) {
+		return (! removed[u] && ! removed[v] && ! failed[slot(u, v)]);
+	}
+	
+	/*
+	 * Brings `links` up or down, then recomputes the rows it affects.
+	 *
+	 * Edges have unit weight, so removing (u, v) can only change row s
+	 * if it lies on a shortest path from s, i.e. |cost(s, u) - cost(s, v)| = 1;
+	 * and adding it can only change row s if |cost(s, u) - cost(s, v)| > 1.
+	 * Since G is undirected, the columns follow from the rows. (If it is
+	 * not, the test still holds for either direction, as it is symmetric.)
+	 */
+	private boolean update (int [][] links, boolean up) {
+		
+		long t = System.nanoTime();
+		try {
+			if (lazy)
+				return updateCache (links, up);
+			
+			boolean [] affected = new boolean[_V_];
+			
+			if (! up)
+				mark (links, affected, false);
+			
+			for (int [] l: links)
+				setLive(l, up);
+			for (int [] l: links) {
+				updateAdjacency(l[0]);
+				updateAdjacency(l[1]);
+			}
+			
+			if (up)
+				mark (links, affected, true);
+			
+			forEachRow(affected, (s, queue, row) -> { bfs(s, queue, row); return true; });
+			
+			return check(affected);
+		} finally {
+			timed(t);
 		}
-		return reset ();
 	}
 	
-	private void initialise() {
-		/* Initialize costs based on connectivity */
-		for (int u = 0; u < _V_; u++) {
-			for (int v = 0; v < _V_; v++) {
-				if (u == v) {
-					cost[u][v] = 0;
-					last[u][v] = u;
-				} else
-				if (edge[u][v] == 1) { /* They are neighbors */
-					cost[u][v] = edge[u][v];
-					last[u][v] = u;
-				} else 
-				{
-					cost[u][v] = INF;
-					last[u][v] = INV;
-				}
+	private void mark (int [][] links, boolean [] affected, boolean up) {
+		forEachRow(null, (s, queue, row) -> {
+			affected[s] = isAffected (v -> cost.get(s, v), links, up);
+			return true;
+		}, false);
+	}
+	
+	private static boolean isAffected (IntUnaryOperator c, int [][] links, boolean up) {
+		for (int [] l: links) {
+			int d = Math.abs(c.applyAsInt(l[0]) - c.applyAsInt(l[1]));
+			if ((up && d > 1) || (! up && d == 1))
+				return true;
+		}
+		return false;
+	}
+	
+	/* Lazy counterpart of update(): cached rows that the change cannot 
+	 * affect are carried over into the new epoch; the rest are dropped,
+	 * to be recomputed if asked for again.
+	 */
+	private boolean updateCache (int [][] links, boolean up) {
+		synchronized (cache) {
+			for (int [] l: links)
+				setLive(l, up);
+			for (int [] l: links) {
+				updateAdjacency(l[0]);
+				updateAdjacency(l[1]);
+			}
+			long current = epoch;
+			epoch ++;
+			Iterator<Row> rows = cache.values().iterator();
+			while (rows.hasNext()) {
+				Row row = rows.next();
+				if (row.epoch == current && ! isAffected (v -> row.cost[v], links, up))
+					row.epoch = epoch;
+				else
+					rows.remove();
 			}
 		}
-		return ;
+		return true;
 	}
 	
-	private void computeShortestPaths() {
-		for (int i = 0; i < _V_; i++) { /* Pivot */
-			for (int u = 0; u < _V_; u++) {
-				if (u == i) /* Skip diagonal */
+	/* Row s, from the cache if it is there and current. Rows' epochs are
+	 * only read or written with the cache locked, as updateCache() does.
+	 */
+	private Row row (int s) {
+		Row row;
+		long current;
+		synchronized (cache) {
+			row = cache.get(s);
+			current = epoch;
+			if (row != null && row.epoch == current) {
+				hits.incrementAndGet();
+				return row;
+			}
+		}
+		misses.incrementAndGet();
+		/* Computed outside the lock; if the topology changes meanwhile,
+		 * the row is already stale and will be recomputed next time.
+		 */
+		row = new Row(_V_, current);
+		bfs (s, row.cost, row.last, row.next, new int[_V_]);
+		synchronized (cache) {
+			cache.put(s, row);
+		}
+		return row;
+	}
+	
+	static class Row {
+		
+		int [] cost;
+		int [] last;
+		int [] next;
+		long epoch; /* Guarded by the cache */
+		
+		Row (int V, long epoch) {
+			cost = new int[V];
+			last = new int[V];
+			next = new int[V];
+			this.epoch = epoch;
+		}
+	}
+	
+	public long getCacheHits () { return hits.get(); }
+	public long getCacheMisses () { return misses.get(); }
+	
+	/* Recomputes row s of cost, last and next */
+	private void bfs (int s, int [] queue, Row row) {
+		bfs (s, row.cost, row.last, row.next, queue);
+		cost.setRow(s, row.cost);
+		last.setRow(s, row.last);
+		next.setRow(s, row.next);
+	}
+	
+	private void bfs (int s, int [] c, int [] l, int [] n, int [] queue) {
+		for (int v = 0; v < _V_; v++) {
+			c[v] = INF;
+			l[v] = INV;
+			n[v] = INV;
+		}
+		c[s] = 0;
+		l[s] = s;
+		n[s] = s;
+		int head = 0, tail = 0;
+		queue[tail++] = s;
+		while (head < tail) {
+			int u = queue[head++];
+			for (int v: adjacency[u]) {
+				if (c[v] != INF)
 					continue;
-				for (int v = 0; v < _V_; v++) {
-					if (cost[u][v] > cost[u][i] + cost[i][v]) {
-						cost[u][v] = cost[u][i] + cost[i][v];
-						last[u][v] = last[i][v];
-					}
-				}
+				c[v] = c[u] + 1;
+				l[v] = u;
+				n[v] = (u == s) ? v : n[u];
+				queue[tail++] = v;
 			}
 		}
-		return ;
 	}
 	
 	private boolean isGraphUndirected() {
 		for (int u = 0; u < _V_; u++) {
-			for (int v = 0; v < _V_; v++) {
-				if (edge[u][v] != edge[v][u])
+			for (int i = offset[u]; i < offset[u + 1]; i++) {
+				if (slot(target[i], u) < 0)
 					return false;
 			}
 		}
 		return true;
 	}
 	
+	/*
+	 * Reads either a V x V adjacency matrix, one comma-separated row per
+	 * line (see networks/); or, for large sparse topologies, a list of
+	 * links, one `u v` pair of process ids (1..V) per line. Lines starting
+	 * with `#` are ignored.
+	 */
 	private void load (String filename) {
 		FileInputStream f;
 		DataInputStream d;
@@ -148,6 +517,12 @@ public class RoutingOracle {
 		
 		String line;
 		int u = 0, v;
+		
+		/* Links, in the order read */
+		int [] from = new int[16];
+		int [] to   = new int[16];
+		int count = 0;
+		boolean matrix = false, list = false;
 		try {
 
 			f = new FileInputStream(filename);
@@ -155,36 +530,105 @@ public class RoutingOracle {
 			b = new BufferedReader(new InputStreamReader(d));
 			
 			while ((line = b.readLine()) != null) {
-				String [] link = line.split(",");
-				/* Assumes link.length == V */
-				for (v = 0; v < link.length; v++) {
-					int value = (link[v].equals("1") && u != v ? 1 : 0);
-					edge[u][v] = value;
-					_E_ += value;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				if (! list && (matrix || line.indexOf(',') >= 0)) {
+					matrix = true;
+					String [] link = line.split(",");
+					/* Assumes link.length == V */
+					for (v = 0; v < link.length; v++) {
+						if (! link[v].trim().equals("1") || u == v)
+							continue;
+						if (count == from.length) {
+							from = Arrays.copyOf(from, 2 * count);
+							to   = Arrays.copyOf(to,   2 * count);
+						}
+						from[count] = u;
+						to  [count] = v;
+						count ++;
+					}
+					u ++;
+				} else {
+					list = true;
+					String [] link = line.split("\\s+");
+					int p = Integer.parseInt(link[0]) -1;
+					int q = Integer.parseInt(link[1]) -1;
+					if (p < 0 || p >= _V_ || q < 0 || q >= _V_)
+						throw new IOException(String.format("link %s is out of range", line));
+					if (p == q)
+						continue;
+					if (count + 2 > from.length) {
+						from = Arrays.copyOf(from, 2 * from.length);
+						to   = Arrays.copyOf(to,   2 * to.length);
+					}
+					/* Links are undirected */
+					from[count] = p; to[count] = q; count ++;
+					from[count] = q; to[count] = p; count ++;
 				}
-				u ++;
 			}
-			if (u != _V_) {
+			if (matrix && u != _V_) {
 				System.err.println(String.format("Error: %s is incorrect", filename));
 				System.exit(1);
 			}
 		} catch (Exception e) {
 			System.err.println("Error: cannot read file " + filename);
 		}
+		build (from, to, count);
 		return ;
 	}
 	
-	public boolean hasPath(int u, int v) { return (cost[u][v] < INF); }
+	/* Builds offset[] and target[] out of `count` (from, to) pairs */
+	private void build (int [] from, int [] to, int count) {
+		offset = new int[_V_ + 1];
+		for (int i = 0; i < count; i++)
+			offset[from[i] + 1] ++;
+		for (int u = 0; u < _V_; u++)
+			offset[u + 1] += offset[u];
+		int [] position = Arrays.copyOf(offset, _V_);
+		int [] t = new int[count];
+		for (int i = 0; i < count; i++)
+			t[position[from[i]]++] = to[i];
+		/* Sort each row and drop duplicate links */
+		target = new int[count];
+		int k = 0;
+		for (int u = 0; u < _V_; u++) {
+			int start = offset[u];
+			int end = offset[u + 1];
+			Arrays.sort(t, start, end);
+			offset[u] = k;
+			for (int i = start; i < end; i++)
+				if (i == start || t[i] != t[i - 1])
+					target[k++] = t[i];
+		}
+		offset[_V_] = k;
+		target = Arrays.copyOf(target, k);
+		_E_ = k;
+		live = new boolean[k];
+		Arrays.fill(live, true);
+		failed = new boolean[k];
+	}
+	
+	public boolean hasPath(int u, int v) { return (getPathLength(u, v) < INF); }
+	
+	public int getPathLength(int u, int v) { return lazy ? row(u).cost[v] : cost.get(u, v); }
 	
-	public int getPathLength(int u, int v) { return cost[u][v]; }
+	public int getNextHop(int u, int v) { return lazy ? row(u).next[v] : next.get(u, v); }
+	
+	/* Row u of the distance matrix; do not modify */
+	public int [] getDistances(int u) {
+		if (lazy)
+			return row(u).cost;
+		int [] c = new int[_V_];
+		cost.getRow(u, c);
+		return c;
+	}
 	
-	public int getNextHop(int u, int v) { return next[u][v]; }
+	private int getLastHop(int u, int v) { return lazy ? row(u).last[v] : last.get(u, v); }
 	
 	public boolean areNeighbours(int u, int v) {
-		boolean result = false;
-		if (u >= 0 && u < _V_ && v >= 0 && v < _V_) /* Is within bounds? */
-			result = (edge[u][v] == 1);
-		return result;
+		int i = slot(u, v); /* Also checks bounds */
+		return (i >= 0 && live[i]);
 	}
 	
 	public boolean isBestNextHop(int u, int v, int w) {
@@ -197,19 +641,94 @@ public class RoutingOracle {
 		
 		return true;
 	}
+
+	/*
+	 * Whether t[i] is u's distance to first + i, for all i. Distances
+	 * of V or more all stand for "unreachable".
+	 */
+	public boolean areShortestPaths(int u, int first, int [] t) {
+		if (u < 0 || u >= _V_ || first < 0 || first + t.length > _V_)
+			return false;
+		int [] c = getDistances(u);
+		for (int i = 0; i < t.length; i++) {
+			int d = c[first + i];
+			if (t[i] != d && ! (t[i] >= _V_ && d >= _V_))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Whether t[i] is a best next hop from u to first + i, for all i;
+	 * t[i] < 0 stands for "no route". u's entry for itself is ignored.
+	 */
+	public boolean areBestNextHops(int u, int first, int [] t) {
+		if (u < 0 || u >= _V_ || first < 0 || first + t.length > _V_)
+			return false;
+		for (int i = 0; i < t.length; i++) {
+			int v = first + i;
+			if (v == u)
+				continue;
+			if (t[i] < 0 ? hasPath(u, v) : ! isBestNextHop(u, v, t[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Checks the tables of many processes at once, in parallel: tables[u]
+	 * holds u's distances (or next hops) to 0 ... V - 1, or is null if
+	 * there is nothing to check. Returns the rows found wrong.
+	 */
+	public boolean [] areShortestPaths(int [][] tables) {
+		return verify(tables, (u, t) -> areShortestPaths(u, 0, t));
+	}
+
+	public boolean [] areBestNextHops(int [][] tables) {
+		return verify(tables, (u, t) -> areBestNextHops(u, 0, t));
+	}
+
+	interface TableCheck {
+		boolean check (int u, int [] t);
+	}
+
+	private boolean [] verify (int [][] tables, TableCheck c) {
+		boolean [] rows = new boolean[_V_];
+		boolean [] wrong = new boolean[_V_];
+		for (int u = 0; u < _V_; u++)
+			rows[u] = (tables[u] != null);
+		forEachRow(rows, (u, queue, row) -> {
+			wrong[u] = (tables[u].length != _V_ || ! c.check(u, tables[u]));
+			return true;
+		}, false);
+		return wrong;
+	}
+
+	/* The same as getNeighbours(u), without allocating; do not modify */
+	public int [] getAdjacency(int u) {
+		if (u < 0 || u >= _V_)
+			return new int[0];
+		return adjacency[u];
+	}
 	
+	/* Links, in compressed sparse row form (see above); do not modify */
+	public int [] getOffsets() { return offset; }
+	public int [] getTargets() { return target; }
+
+	/* Returns the index of link (u, v) in getTargets(), or -1 */
+	public int getSlot(int u, int v) { return slot(u, v); }
+
 	public ArrayList<Integer> getNeighbours(int u) {
 		ArrayList<Integer> neighbours = new ArrayList<Integer>();
-		for (int v = 0; v < _V_; v++)
-			if (edge[u][v] == 1 && u != v)
-				neighbours.add(v);
+		for (int v: adjacency[u])
+			neighbours.add(v);
 		return neighbours;
 	}
 	
 	private void dumpRoutingTable(int u) {
-		Utils.out(String.format("%d's routing table", u));
+		log.debug(String.format("%d's routing table", u));
 		for (int w = 0; w < _V_; w++)
-			Utils.out(String.format("%d: %d", w, next[u][w]));
+			log.debug(String.format("%d: %d", w, getNextHop(u, w)));
 	}
 	
 	public Stack<Integer> getPath(int u, int v) {
@@ -217,36 +736,33 @@ public class RoutingOracle {
 			return null;
 		Stack<Integer> path = new Stack<Integer>();
 		path.push(v);
-		int w = last[u][v];
+		int w = getLastHop(u, v);
 		while (w != u) {
 			path.push(w);
-			w = last[u][w];
+			w = getLastHop(u, w);
 		}
 		return path;
 	}
 	
-	private void computeRoutingTables() {
-		for (int u = 0; u < _V_; u++) {
-			for (int v = 0; v < _V_; v++) {
-				Stack<Integer> s = getPath(u, v);
-				if (s != null)
-					next[u][v] = s.peek().intValue();
-			}
-		}
+	private boolean check () {
+		return check(null);
 	}
 	
-	private boolean check () {
-		for (int u = 0; u < _V_; u++) {
+	/* Not done in lazy mode, since it needs every row */
+	private boolean check (boolean [] rows) {
+		if (lazy)
+			return true;
+		return forEachRow(rows, (u, queue, row) -> {
+			int [] c = row.cost;
+			cost.getRow(u, c);
 			for (int v = 0; v < _V_; v++) {
-				ArrayList<Integer> neighbours = getNeighbours(u);
-				for (Integer w: neighbours) {
-					int z = w.intValue();
-					if (cost[u][v] > cost[u][z] + cost[z][v])
+				for (int z: adjacency[u]) {
+					if (c[v] > c[z] + cost.get(z, v))
 						return false;
 				}
 			}
-		}
-        return true;
+			return true;
+		});
     }
 	
 	/* Unit tests */
@@ -255,8 +771,8 @@ public class RoutingOracle {
 		int N = Integer.parseInt(args[0]);
 		String filename = args[1];
 		
-		/* Floyd-Warshall algorithm */
 		RoutingOracle o = new RoutingOracle(N, filename);
+		o.reset();
 		
 		/* Is it connected? */
 		for (int u = 0; u < N; u++) {
@@ -0,0 +1,132 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Compact encoding of a routing table, for checking it against the oracle
+ * (Utils.CHECK_COST_TABLE and Utils.CHECK_NEXT_TABLE). A table of n entries
+ * is sent as a few chunks of at most CHUNK entries each, so that neither
+ * side has to hold the whole of it as text. Each chunk is
+ *
+ * [byte flags][varint first][varint count][varint value] x count
+ *
+ * where the values are the entries for destinations first, first + 1, ...
+ * (zig-zag encoded, so that negative values stay short), Base64'd so that
+ * it can be sent with either framing.
+ */
+public class RoutingTable {
+
+	public static final int CHUNK = 4096; /* Entries per message */
+
+	/* If set, the Registrar keeps the chunk for a later bulk check
+	 * (see Registrar.verify) rather than checking it now.
+	 */
+	public static final int POST = 1;
+
+	private int flags;
+	private int first;
+	private int [] values;
+
+	private RoutingTable (int flags, int first, int [] values) {
+		this.flags = flags;
+		this.first = first;
+		this.values = values;
+	}
+
+	public boolean isPost () { return ((flags & POST) != 0); }
+
+	/* The destination of values[0] */
+	public int getFirst () { return first; }
+
+	public int [] getValues () { return values; }
+
+	/* Encodes table[first] ... table[first + count - 1] */
+	public static String encode (int [] table, int first, int count, int flags) {
+		ByteArrayOutputStream b = new ByteArrayOutputStream(count + 16);
+		b.write(flags);
+		putVarint(b, first);
+		putVarint(b, count);
+		for (int i = first; i < first + count; i++)
+			putVarint(b, (table[i] << 1) ^ (table[i] >> 31));
+		return Base64.getEncoder().encodeToString(b.toByteArray());
+	}
+
+	/* Returns null if `payload` is malformed */
+	public static RoutingTable decode (String payload) {
+		byte [] b;
+		try {
+			b = Base64.getDecoder().decode(payload);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		int [] position = new int [] { 1 };
+		if (b.length < 1)
+			return null;
+		int first = getVarint(b, position);
+		int count = getVarint(b, position);
+		if (first < 0 || count < 0 || count > b.length)
+			return null;
+		int [] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			int x = getVarint(b, position);
+			values[i] = (x >>> 1) ^ -(x & 1);
+		}
+		if (position[0] > b.length)
+			return null;
+		return new RoutingTable(b[0], first, values);
+	}
+
+	private static void putVarint (ByteArrayOutputStream b, int x) {
+		while ((x & ~0x7F) != 0) {
+			b.write((x & 0x7F) | 0x80);
+			x >>>= 7;
+		}
+		b.write(x);
+	}
+
+	/* Reads past the end of `b` as zeros; position[0] then tells */
+	private static int getVarint (byte [] b, int [] position) {
+		int x = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int i = position[0]++;
+			int y = (i < b.length) ? b[i] : 0;
+			x |= (y & 0x7F) << shift;
+			if ((y & 0x80) == 0)
+				break;
+		}
+		return x;
+	}
+
+	/* Unit tests */
+	public static void main (String [] args) {
+		int n = 10000;
+		int [] table = new int[n + 1];
+		Random random = new Random(0);
+		for (int v = 1; v <= n; v++)
+			table[v] = random.nextInt(3 * n) - n;
+		table[n] = Integer.MIN_VALUE;
+		for (int first = 1; first <= n; first += CHUNK) {
+			int count = Math.min(CHUNK, n - first + 1);
+			String s = encode(table, first, count, POST);
+			RoutingTable t = decode(s);
+			if (t == null || ! t.isPost() || t.getFirst() != first || t.getValues().length != count) {
+				System.err.println("Error: bad chunk at " + first);
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				if (t.getValues()[i] != table[first + i]) {
+					System.err.println("Error: bad entry " + (first + i));
+					return;
+				}
+			}
+			System.out.println(String.format("%d entries in %d bytes", count, s.length()));
+		}
+		if (decode("not base64!") != null || decode(encode(table, 1, 100, 0).substring(0, 20)) != null)
+			System.err.println("Error: accepted a malformed chunk");
+	}
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/*
+ * The selector-based counterpart of Worker: reads a process's requests
+ * and replies, without owning a thread.
+ */
+public class Session implements EventLoop.Handler {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte [] OK  = "OK\n" .getBytes(StandardCharsets.UTF_8);
+	private static final byte [] ERR = "ERR\n".getBytes(StandardCharsets.UTF_8);
+
+	private SocketChannel channel;
+	private SelectionKey key;
+
+	private Registrar r;
+	private EventLoop loop;
+	private int myprocess;
+
+	private Relay relay;
+	
+	/* True once binary framing is agreed at registration */
+	private boolean binary;
+
+	/* Bytes read, but not yet parsed; replies not yet written */
+	private ByteBuffer in;
+	private ByteBuffer out;
+
+	public Session (SocketChannel channel, Registrar r, EventLoop loop) {
+		this.channel = channel;
+		this.r = r;
+		this.loop = loop;
+
+		myprocess = Utils.INFINITY;
+
+		relay = new Relay(r);
+		binary = false;
+
+		in  = ByteBuffer.allocate(BUFFER_SIZE);
+		out = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/* Must be called on the loop's thread */
+	public void start () {
+		try {
+			key = loop.register(channel, SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	public void handle (SelectionKey key) throws IOException {
+		try {
+			if (key.isReadable())
+				read();
+			if (key.isValid() && key.isWritable())
+				flush();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void fail (IOException e) {
+		System.err.println(String.format("Error: P%d's session has failed.", myprocess));
+		System.err.println(e.getMessage());
+		System.exit(1);
+	}
+
+	private void read () throws IOException {
+		int bytes = channel.read(in);
+		if (bytes < 0) { /* Null message. */
+			key.cancel();
+			channel.close();
+			return ;
+		}
+		in.flip();
+		if (! binary)
+			readLines();
+		if (binary)
+			while (Message.hasFrame(in))
+				process(Message.decode(in));
+		in.compact();
+		if (! in.hasRemaining()) { /* A very long line; make room for it */
+			ByteBuffer larger = ByteBuffer.allocate(2 * in.capacity());
+			in.flip();
+			larger.put(in);
+			in = larger;
+		}
+		/* Replies to everything read so far go out together */
+		flush();
+	}
+
+	private void readLines () {
+		byte [] array = in.array();
+		int start = in.position();
+		for (int i = start; i < in.limit() && ! binary; i++) {
+			if (array[i] != '\n')
+				continue;
+			int end = (i > start && array[i - 1] == '\r') ? i - 1 : i;
+			process(Message.parse(new String(array, start, end - start, StandardCharsets.UTF_8)));
+			start = i + 1;
+		}
+		in.position(start);
+	}
+
+	private void process (Message m) {
+
+		if (m.getDestination() == r.pid && m.getType().equals("NULL")) {
+
+			myprocess = m.getSource();
+			relay.setProcess(myprocess);
+			/* Payload is of the form `name:host:port[:binary]` */
+			StringTokenizer tokens = new StringTokenizer(m.getPayload(), ":");
+			String name = tokens.nextToken();
+			String host = tokens.nextToken();
+			int port = Integer.parseInt(tokens.nextToken());
+			Record record = new Record(name, host, port);
+			record.setBinary(tokens.hasMoreTokens() && tokens.nextToken().equals("binary"));
+			new Outbox(record, loop).connect();
+			final boolean result = r.registeR (record);
+			/* Reply once all other processes have registered too */
+			r.whenRegistered(() -> loop.execute(() -> {
+				put(result ? OK : ERR);
+				try {
+					flush();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}));
+			/* The reply above is text; everything after it is binary */
+			binary = record.isBinary();
+
+		} else /* Oracle query, or relay message. */
+			reply(relay.request(m));
+	}
+
+	private void reply (boolean result) {
+		if (binary)
+			put(new byte [] { (byte) (result ? 1 : 0) });
+		else
+			put(result ? OK : ERR);
+	}
+	
+	private void put (byte [] bytes) {
+		if (out.remaining() < bytes.length) {
+			ByteBuffer larger = ByteBuffer.allocate(2 * out.capacity() + bytes.length);
+			out.flip();
+			larger.put(out);
+			out = larger;
+		}
+		out.put(bytes);
+	}
+
+	private void flush () throws IOException {
+		if (! key.isValid())
+			return ;
+		out.flip();
+		channel.write(out);
+		out.compact();
+		if (out.position() > 0)
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		else
+			key.interestOps(SelectionKey.OP_READ);
+	}
+}
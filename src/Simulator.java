@@ -0,0 +1,278 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Runs the Registrar and all n processes in one JVM, like the Emulator,
+ * but in virtual time, e.g.
+ *
+ * java -Dco347.seed=42 Simulator Broadcaster 10 networks/mesh-10.txt
+ *
+ * Everything that happens is an event in a single queue, ordered by
+ * virtual time and then by the order it was scheduled: a message due
+ * after its link delay, a timer (see Process.schedule), or a process
+ * waking up (see Process.sleep). Events run one at a time, and the clock
+ * jumps from one to the next; so a run takes as long as its events take
+ * to compute, and, given the same seed (Utils.SEED), it is exactly the
+ * same run every time.
+ *
+ * Each process's main() still runs on a thread of its own, but only while
+ * every other thread waits: it runs until it sleeps, awaits the other
+ * processes' registration, or returns. Messages and timers are handled
+ * on the simulator's thread, so a process must not wait for them while
+ * holding its own lock; and it must not sleep from within receive().
+ *
+ * The run ends when no events are left or, if Utils.SIM_TIME is set,
+ * once the clock reaches it. Faults are not injected (there is no
+ * FaultManager), nor are measurements written (see PeriodicPrinter),
+ * as both run in wall-clock time.
+ */
+public class Simulator {
+
+	private static volatile Simulator simulator = null;
+
+	private Registrar registrar;
+
+	/* By pid; see attach() */
+	private Process [] processes;
+	private boolean [] draining;
+
+	/* Pending events, earliest first */
+	private PriorityQueue<Event> events;
+	private long sequence;
+
+	/* Virtual time (nsec), that of the event running */
+	private long time;
+	private long count;
+
+	/* Seeds every other generator, in the order they are asked for */
+	private Random seeds;
+
+	/* Whoever runs releases `loop` to hand control back to run() */
+	private Semaphore loop;
+	private ThreadLocal<Strand> strand;
+
+	private Simulator (int n) {
+		processes = new Process[n + 1];
+		draining = new boolean[n + 1];
+		events = new PriorityQueue<Event>();
+		sequence = 0;
+		time = 0;
+		count = 0;
+		seeds = new Random(Utils.SEED);
+		loop = new Semaphore(0);
+		strand = new ThreadLocal<Strand>();
+	}
+
+	public static boolean isRunning () { return (simulator != null); }
+
+	public static Simulator get () { return simulator; }
+
+	public static Registrar getRegistrar () { return simulator.registrar; }
+
+	/* System.nanoTime(), or the virtual time if simulated */
+	public static long nanoTime () {
+		Simulator s = simulator;
+		return (s == null) ? System.nanoTime() : s.time;
+	}
+
+	/* System.currentTimeMillis(), or the virtual time if simulated */
+	public static long currentTimeMillis () {
+		Simulator s = simulator;
+		return (s == null) ? System.currentTimeMillis() : TimeUnit.NANOSECONDS.toMillis(s.time);
+	}
+
+	/* A new random number generator; seeded from Utils.SEED if simulated */
+	public static Random newRandom () {
+		Simulator s = simulator;
+		return (s == null) ? new Random() : new Random(s.seeds.nextLong());
+	}
+
+	/* Called by every process, as it is created */
+	public void attach (Process p) {
+		processes[p.getPid()] = p;
+	}
+
+	private Event at (long t, Runnable task) {
+		Event e = new Event(task, Math.max(t, time), ++sequence);
+		events.add(e);
+		return e;
+	}
+
+	/* Runs `task` on the simulator's thread `delay` msec from now */
+	public Future<?> schedule (long delay, Runnable task) {
+		return at(time + TimeUnit.MILLISECONDS.toNanos(delay), task);
+	}
+
+	/*
+	 * Puts `entry` into P(dst)'s queue at `due` (nsec), and hands the
+	 * queue's contents to P(dst), in order of priority, right after.
+	 */
+	public void deliver (int dst, Record destination, MessageEntry entry, long due) {
+		at(due, () -> {
+			destination.put(entry);
+			if (! draining[dst]) {
+				draining[dst] = true;
+				at(time, () -> drain(dst, destination.getQueue()));
+			}
+		});
+	}
+
+	private void drain (int dst, DeliveryQueue queue) {
+		ArrayList<MessageEntry> entries = new ArrayList<MessageEntry>(Utils.RECEIVE_BATCH);
+		ArrayList<Message> batch = new ArrayList<Message>(Utils.RECEIVE_BATCH);
+		draining[dst] = false;
+		while (queue.drainTo(entries, Utils.RECEIVE_BATCH) > 0) {
+			for (MessageEntry e: entries)
+				batch.add(e.getFrame().toMessage(e.getDestination()));
+			processes[dst].receiveBatch(batch);
+			entries.clear();
+			batch.clear();
+		}
+	}
+
+	/* Blocks the calling process until all processes have registered */
+	public void awaitRegistration () {
+		Strand s = current("awaitRegistration");
+		registrar.whenRegistered(() -> at(time, () -> resume(s)));
+		s.suspend();
+	}
+
+	/* Blocks the calling process for `nanos` nsec of virtual time */
+	public void sleepNanos (long nanos) {
+		Strand s = current("sleep");
+		at(time + nanos, () -> resume(s));
+		s.suspend();
+	}
+
+	private Strand current (String operation) {
+		Strand s = strand.get();
+		if (s == null) {
+			System.err.println(String.format(
+				"Error: %s() called outside a process's main().", operation));
+			System.exit(1);
+		}
+		return s;
+	}
+
+	/* Runs `s` until it suspends itself or finishes */
+	private void resume (Strand s) {
+		s.baton.release();
+		loop.acquireUninterruptibly();
+	}
+
+	/* Runs all events due by `limit` (nsec; 0 for no limit) */
+	private void run (long limit) {
+		Event e;
+		while ((e = events.peek()) != null) {
+			if (limit > 0 && e.time > limit)
+				break;
+			events.poll();
+			time = e.time;
+			count ++;
+			e.run();
+		}
+	}
+
+	public static void main (String [] args) {
+
+		if (args.length < 3) {
+			System.err.println("usage: java Simulator [class] [#instances] [topology] [args...]");
+			System.exit(1);
+		}
+
+		Method main = Emulator.getMain(args[0]);
+
+		int n = Integer.parseInt(args[1]);
+		String filename = args[2];
+
+		if (! (new File(filename).isFile())) {
+			System.err.println(String.format("Error: %s does not exist.",
+				filename));
+			System.exit(1);
+		}
+
+		Simulator s = new Simulator(n);
+		simulator = s;
+		s.registrar = new Registrar(n, filename);
+		Utils.out(Registrar.pid, String.format("Simulator started; n = %d, seed = %d.", n, Utils.SEED));
+
+		/* P(1), ..., P(n) start at time 0, in this order */
+		for (int i = 1; i <= n; i++) {
+			Strand p = s.new Strand(String.format("P%d", i), Emulator.getTask(main, args, i));
+			s.at(0, () -> s.resume(p));
+		}
+
+		long start = System.nanoTime();
+		s.run(TimeUnit.MILLISECONDS.toNanos(Utils.SIM_TIME));
+		long elapsed = System.nanoTime() - start;
+
+		Utils.out(Registrar.pid, String.format("Simulation ended at %.3f s; %d events.",
+			s.time / 1e9, s.count));
+		/* Not reproducible; kept apart from the run's output */
+		System.err.println(String.format("%d events in %.3f s (%.0f events/s).",
+			s.count, elapsed / 1e9, s.count / (elapsed / 1e9)));
+		System.exit(0);
+	}
+
+	/* A process's main(); it only runs while it holds its baton */
+	class Strand implements Runnable {
+
+		private Semaphore baton;
+		private Runnable task;
+
+		Strand (String name, Runnable task) {
+			this.task = task;
+			baton = new Semaphore(0);
+			Threads.start(name, this, true);
+		}
+
+		public void run () {
+			baton.acquireUninterruptibly();
+			strand.set(this);
+			try {
+				task.run();
+			} finally {
+				loop.release();
+			}
+		}
+
+		/* Hands control back to the simulator, until resumed */
+		void suspend () {
+			loop.release();
+			baton.acquireUninterruptibly();
+		}
+	}
+
+	static class Event extends FutureTask<Void> implements Comparable<Event> {
+
+		private long time;
+		private long sequence;
+
+		Event (Runnable task, long time, long sequence) {
+			super(task, null);
+			this.time = time;
+			this.sequence = sequence;
+		}
+
+		/* An event that fails ends the run; it cannot be run again */
+		protected void setException (Throwable t) {
+			System.err.println(String.format("Error: event at %d nsec has failed.", time));
+			t.printStackTrace();
+			System.exit(1);
+		}
+
+		public int compareTo (Event e) {
+			if (time != e.time)
+				return Long.compare(time, e.time);
+			return Long.compare(sequence, e.sequence);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+
+/* Loopback, or any other, TCP; see Transport */
+public class TcpTransport extends Transport {
+
+	public Connection connect (String host, int port) throws IOException {
+		Socket s = new Socket(host, port);
+		s.setKeepAlive(true);
+		s.setSoTimeout(0);
+		return new SocketConnection(s);
+	}
+
+	public Server listen (int port, int backlog) throws IOException {
+		final ServerSocket serversocket = new ServerSocket(port, backlog);
+		serversocket.setSoTimeout(0);
+		return new Server() {
+			public Connection accept () throws IOException {
+				return new SocketConnection(serversocket.accept());
+			}
+			public void close () throws IOException {
+				serversocket.close();
+			}
+		};
+	}
+
+	public SocketChannel open () throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+		return channel;
+	}
+
+	public ServerSocketChannel bind (int port, int backlog) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(new InetSocketAddress(port), backlog);
+		return channel;
+	}
+
+	public SocketAddress getAddress (String host, int port) {
+		return new InetSocketAddress(host, port);
+	}
+
+	static class SocketConnection implements Connection {
+
+		private Socket s;
+
+		SocketConnection (Socket s) {
+			this.s = s;
+		}
+
+		public InputStream getInputStream () throws IOException { return s.getInputStream(); }
+		public OutputStream getOutputStream () throws IOException { return s.getOutputStream(); }
+		public void close () throws IOException { s.close(); }
+	}
+}
@@ -23,18 +23,10 @@ class Test extends Process {
 	
 	public void checkRoutingDistances () {
 		
-		/* It creates a message of the form:
-		 * this.pid<|>0<|>Utils.CHECK_COST<|>1:D[1];2:D[2]...n:D[n]
+		/* Sends D[1..n] in binary chunks (see RoutingTable), rather than
+		 * as this.pid<|>0<|>Utils.CHECK_COST<|>1:D[1];2:D[2]...n:D[n]
 		 */
-		String payload = "";
-		String f;
-		for (int v = 1; v < n + 1; v++) {
-			f = "%d:%d";
-			if (v != n) f += ";";
-			payload += String.format(f, v, D[v]);
-		}
-		Message m = new Message(pid, 0, Utils.CHECK_COST, payload);
-		if (unicast (m))
+		if (checkTable (Utils.CHECK_COST_TABLE, D, false))
 			Utils.out(pid, "OK");
 		else
 			Utils.out(pid, "Error");
@@ -65,7 +57,7 @@ class Test extends Process {
 		while (true) { /* Sleep, poll, check. */
 			try {
 				/* Follow the periodicity of heartbeat messages */
-				Thread.sleep(Utils.Delta);
+				p.sleep(Utils.Delta);
 				/* Get the current `mydist` message count */
 				current = p.getMydistCount();
 				
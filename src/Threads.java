@@ -0,0 +1,74 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.lang.reflect.*;
+
+/*
+ * Where the Registrar's and processes' blocking tasks (Workers, message
+ * handlers, listeners, etc.) get their threads. If Utils.VIRTUAL is set,
+ * and the JVM supports them (Java 21 or later), daemon tasks run on
+ * virtual threads; otherwise, and for tasks that must keep the JVM alive,
+ * on platform threads.
+ *
+ * Virtual threads are created by reflection, so that this still compiles
+ * and runs on older JVMs.
+ */
+public class Threads {
+
+	/* Thread.ofVirtual(), Thread.Builder.name() and .unstarted(); or null */
+	private static Method ofVirtual;
+	private static Method name;
+	private static Method unstarted;
+
+	static {
+		if (Utils.VIRTUAL) {
+			try {
+				Class<?> builder = Class.forName("java.lang.Thread$Builder");
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				name = builder.getMethod("name", String.class);
+				unstarted = builder.getMethod("unstarted", Runnable.class);
+				/* Fails here, rather than later, if they are a preview feature */
+				newVirtualThread("probe", () -> {});
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				System.err.println(String.format(
+					"Warning: virtual threads are not available (Java %s); using platform threads.",
+					System.getProperty("java.version")));
+				ofVirtual = null;
+			}
+		}
+	}
+
+	private static Thread newVirtualThread (String s, Runnable task)
+		throws ReflectiveOperationException {
+		Object builder = ofVirtual.invoke(null);
+		builder = name.invoke(builder, s);
+		return (Thread) unstarted.invoke(builder, task);
+	}
+
+	public static boolean isVirtual () {
+		return (ofVirtual != null);
+	}
+
+	/* Returns a new, unstarted thread; virtual threads are always daemons */
+	public static Thread newThread (String s, Runnable task, boolean daemon) {
+		if (daemon && ofVirtual != null) {
+			try {
+				return newVirtualThread(s, task);
+			} catch (ReflectiveOperationException e) {
+				/* Fall through */
+			}
+		}
+		Thread t = new Thread(task, s);
+		t.setDaemon(daemon);
+		return t;
+	}
+
+	public static Thread start (String s, Runnable task, boolean daemon) {
+		Thread t = newThread(s, task, daemon);
+		t.start();
+		return t;
+	}
+}
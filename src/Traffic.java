@@ -0,0 +1,153 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Messages and bytes relayed over every link, by message type.
+ *
+ * Counters are laid out like the oracle's links (see RoutingOracle's
+ * compressed sparse row form): one row per link (u, v), with a column per
+ * message type, and one for bytes. All of them are made up front, so
+ * counting a message allocates nothing; and each is a LongAdder, so that
+ * Workers relaying over different links, or over the same one at once,
+ * do not contend on it.
+ *
+ * Types are given columns as they are first seen, up to TYPES - 1 of
+ * them; any others share column 0, and are counted together, as OTHER.
+ */
+public class Traffic {
+
+	/* Columns, including 0 */
+	public static final int TYPES = 16;
+	
+	/* Column 0's name */
+	public static final String OTHER = "(other)";
+
+	/* Link slot i is (source[i], target[i]); pids */
+	private int [] source;
+	private int [] target;
+
+	private RoutingOracle oracle;
+
+	/* messages[i * TYPES + t] counts type t over link i */
+	private LongAdder [] messages;
+	private LongAdder [] bytes;
+
+	/* Column by type, and type by column */
+	private ConcurrentMap<String,Integer> columns;
+	private String [] types;
+	private int used; /* Columns given out, 0 included */
+
+	public Traffic (RoutingOracle oracle) {
+		this.oracle = oracle;
+		int [] offset = oracle.getOffsets();
+		int [] t = oracle.getTargets();
+		int slots = t.length;
+		source = new int[slots];
+		target = new int[slots];
+		for (int u = 0; u < offset.length - 1; u++) {
+			for (int i = offset[u]; i < offset[u + 1]; i++) {
+				source[i] = u + 1;
+				target[i] = t[i] + 1;
+			}
+		}
+		messages = new LongAdder[slots * TYPES];
+		for (int i = 0; i < messages.length; i++)
+			messages[i] = new LongAdder();
+		bytes = new LongAdder[slots];
+		for (int i = 0; i < slots; i++)
+			bytes[i] = new LongAdder();
+		columns = new ConcurrentHashMap<String,Integer>();
+		types = new String[TYPES];
+		types[0] = OTHER;
+		used = 1;
+	}
+
+	/* Returns the column of message `type`; look it up once per message */
+	public int getType (String type) {
+		Integer column = columns.get(type);
+		if (column != null)
+			return column;
+		synchronized (this) {
+			column = columns.get(type);
+			if (column == null) {
+				if (used < TYPES && ! type.equals(OTHER)) {
+					column = used ++;
+					types[column] = type;
+				} else
+					column = 0;
+				columns.put(type, column);
+			}
+		}
+		return column;
+	}
+
+	/* Counts a message in `column` (see getType), `size` bytes long,
+	 * relayed from P(src) to P(dst)
+	 */
+	public void count (int src, int dst, int column, int size) {
+		int i = oracle.getSlot(src - 1, dst - 1);
+		if (i < 0) /* Not a link */
+			return ;
+		messages[i * TYPES + column].increment();
+		bytes[i].add(size);
+	}
+
+	public int getLinks () { return bytes.length; }
+
+	public int getSource (int link) { return source[link]; }
+
+	public int getDestination (int link) { return target[link]; }
+
+	/*
+	 * Copies each link's message counts, by column, into `counts` (a row
+	 * of TYPES per link), and its byte counts into `sizes`. Returns the
+	 * columns' types so far, OTHER first; they do not change, but for
+	 * types added at the end.
+	 */
+	public String [] snapshot (long [][] counts, long [] sizes) {
+		String [] t = getTypes();
+		for (int i = 0; i < sizes.length; i++) {
+			for (int c = 0; c < t.length; c++)
+				counts[i][c] = messages[i * TYPES + c].sum();
+			sizes[i] = bytes[i].sum();
+		}
+		return t;
+	}
+
+	/* Columns' types, in column order, OTHER first */
+	public synchronized String [] getTypes () {
+		return Arrays.copyOf(types, used);
+	}
+
+	/* Returns the count of messages in `type`'s column, over all links;
+	 * for OTHER, or any type without a column of its own, that of all of
+	 * them
+	 */
+	public long getCount (String type) {
+		Integer column = type.equals(OTHER) ? Integer.valueOf(0) : columns.get(type);
+		if (column == null)
+			return 0;
+		long sum = 0;
+		for (int i = 0; i < bytes.length; i++)
+			sum += messages[i * TYPES + column].sum();
+		return sum;
+	}
+
+	/* Returns all counts, by column type; OTHER only if it has any */
+	public Map<String, Long> getCounts () {
+		TreeMap<String, Long> counts = new TreeMap<String, Long>();
+		for (String type: getTypes()) {
+			long count = getCount(type);
+			if (count > 0 || ! type.equals(OTHER))
+				counts.put(type, count);
+		}
+		return counts;
+	}
+}
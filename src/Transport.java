@@ -0,0 +1,66 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+
+/*
+ * How processes and the Registrar reach one another. An endpoint is a
+ * (host, port) pair, as before; a transport decides what that means:
+ *
+ * "tcp"  - a TCP socket at host:port (the default; see TcpTransport);
+ * "unix" - a Unix domain socket named after the port, for when everyone
+ *          runs on the same host (see UnixTransport).
+ *
+ * The transport is chosen at launch (java -Dco347.transport=unix ...) and
+ * must be the same for the Registrar and all processes.
+ */
+public abstract class Transport {
+
+	/* A connected, blocking, byte stream */
+	public interface Connection {
+		InputStream getInputStream () throws IOException;
+		OutputStream getOutputStream () throws IOException;
+		void close () throws IOException;
+	}
+
+	public interface Server {
+		Connection accept () throws IOException;
+		void close () throws IOException;
+	}
+
+	private static Transport transport = null;
+
+	public static synchronized Transport get () {
+		if (transport == null) {
+			if (Utils.TRANSPORT.equals("unix"))
+				transport = new UnixTransport();
+			else
+			if (Utils.TRANSPORT.equals("tcp"))
+				transport = new TcpTransport();
+			else {
+				System.err.println(String.format("Error: unknown transport %s.", Utils.TRANSPORT));
+				System.exit(1);
+			}
+		}
+		return transport;
+	}
+
+	/* Blocking connections, as used by Process, Listener and Worker */
+	public abstract Connection connect (String host, int port) throws IOException;
+
+	public abstract Server listen (int port, int backlog) throws IOException;
+
+	/* Channels, for the selector-based Registrar (see Utils.NIO); the 
+	 * former is unconnected, the latter bound.
+	 */
+	public abstract SocketChannel open () throws IOException;
+
+	public abstract ServerSocketChannel bind (int port, int backlog) throws IOException;
+
+	public abstract SocketAddress getAddress (String host, int port);
+}
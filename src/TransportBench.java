@@ -0,0 +1,131 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+
+/*
+ * Compares the transports (see Transport) between two threads of this
+ * JVM: round-trip latency of small messages, one at a time, and one-way
+ * throughput of a stream of them, through the same buffered streams
+ * Process and Worker use.
+ *
+ * java TransportBench [message size] [#messages]
+ */
+class TransportBench {
+
+	private static final int PORT = Utils.REGISTRAR_PORT - 10;
+	private static final int RUNS = 3;
+
+	/* Echoes everything it reads, until the connection is closed */
+	private static Thread echo (Transport.Server server) {
+		Thread t = new Thread(() -> {
+			try {
+				Transport.Connection c = server.accept();
+				InputStream in = c.getInputStream();
+				OutputStream out = c.getOutputStream();
+				byte [] buffer = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+					out.write(buffer, 0, n);
+					out.flush();
+				}
+				c.close();
+			} catch (IOException e) {
+				System.err.println("Error: echo failed: " + e.getMessage());
+				System.exit(1);
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	private static void readFully (InputStream in, byte [] b) throws IOException {
+		int offset = 0;
+		while (offset < b.length) {
+			int n = in.read(b, offset, b.length - offset);
+			if (n < 0)
+				throw new EOFException();
+			offset += n;
+		}
+	}
+
+	/* Returns the median round trip, in usec */
+	private static double latency (Transport t, int size, int count) throws IOException {
+		Transport.Server server = t.listen(PORT, 1);
+		echo(server);
+		Transport.Connection c = t.connect("localhost", PORT);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(c.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(c.getOutputStream()));
+		byte [] message = new byte[size];
+		long [] rtt = new long[count];
+		for (int i = 0; i < count; i++) {
+			long start = System.nanoTime();
+			out.write(message);
+			out.flush();
+			readFully(in, message);
+			rtt[i] = System.nanoTime() - start;
+		}
+		c.close();
+		server.close();
+		java.util.Arrays.sort(rtt);
+		return rtt[count / 2] / 1000.;
+	}
+
+	/* Returns messages per second, written in batches and echoed back */
+	private static double throughput (Transport t, int size, int count) throws IOException {
+		Transport.Server server = t.listen(PORT, 1);
+		echo(server);
+		Transport.Connection c = t.connect("localhost", PORT);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(c.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(c.getOutputStream(), 64 * 1024));
+		final long total = (long) size * count;
+		Thread reader = new Thread(() -> {
+			byte [] buffer = new byte[64 * 1024];
+			long received = 0;
+			try {
+				while (received < total) {
+					int n = in.read(buffer, 0, (int) Math.min(buffer.length, total - received));
+					if (n < 0)
+						break;
+					received += n;
+				}
+			} catch (IOException ignored) {}
+		});
+		byte [] message = new byte[size];
+		long start = System.nanoTime();
+		reader.start();
+		for (int i = 0; i < count; i++)
+			out.write(message);
+		out.flush();
+		try {
+			reader.join();
+		} catch (InterruptedException ignored) {}
+		long elapsed = System.nanoTime() - start;
+		c.close();
+		server.close();
+		return count / (elapsed / 1e9);
+	}
+
+	public static void main (String [] args) throws IOException {
+		int size  = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+
+		Transport [] transports = { new TcpTransport(), new UnixTransport() };
+		String [] names = { "tcp", "unix" };
+
+		System.out.println(String.format("%d-byte messages", size));
+		System.out.println(String.format("%-6s %14s %16s", "", "rtt (usec)", "msg/s"));
+		for (int i = 0; i < transports.length; i++) {
+			double rtt = Double.MAX_VALUE, rate = 0;
+			for (int run = 0; run < RUNS; run++) {
+				rtt  = Math.min(rtt, latency(transports[i], size, count));
+				rate = Math.max(rate, throughput(transports[i], size, 50 * count));
+			}
+			System.out.println(String.format("%-6s %14.1f %16.0f", names[i], rtt, rate));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2013-2014, Imperial College London
+ * All rights reserved.
+ *
+ * Distributed Algorithms, CO347
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/*
+ * Unix domain sockets (Java 16 or later): endpoint (host, port) is the
+ * socket file co347-<port>.sock in Utils.SOCKET_DIR, whatever the host.
+ * See Transport.
+ */
+public class UnixTransport extends Transport {
+
+	private Path getPath (int port) {
+		return Paths.get(Utils.SOCKET_DIR, String.format("co347-%d.sock", port));
+	}
+
+	public SocketAddress getAddress (String host, int port) {
+		return UnixDomainSocketAddress.of(getPath(port));
+	}
+
+	public SocketChannel open () throws IOException {
+		return SocketChannel.open(StandardProtocolFamily.UNIX);
+	}
+
+	public ServerSocketChannel bind (int port, int backlog) throws IOException {
+		Path path = getPath(port);
+		/* Left behind by an earlier run, e.g. one that was killed */
+		Files.deleteIfExists(path);
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.bind(UnixDomainSocketAddress.of(path), backlog);
+		path.toFile().deleteOnExit();
+		return channel;
+	}
+
+	public Connection connect (String host, int port) throws IOException {
+		SocketChannel channel = open();
+		try {
+			channel.connect(getAddress(host, port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new ChannelConnection(channel);
+	}
+
+	public Server listen (int port, int backlog) throws IOException {
+		final ServerSocketChannel channel = bind(port, backlog);
+		return new Server() {
+			public Connection accept () throws IOException {
+				return new ChannelConnection(channel.accept());
+			}
+			public void close () throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+	/*
+	 * Streams over a blocking channel. Channels.newInputStream() would do,
+	 * except that its streams lock the channel's blockingLock() on every
+	 * call, so a read blocked in one thread holds up writes from another
+	 * (e.g. Process's AckReader and its senders).
+	 */
+	static class ChannelConnection implements Connection {
+
+		private SocketChannel channel;
+		private InputStream in;
+		private OutputStream out;
+
+		ChannelConnection (SocketChannel channel) {
+			this.channel = channel;
+			in = new ChannelInputStream(channel);
+			out = new ChannelOutputStream(channel);
+		}
+
+		public InputStream getInputStream () { return in; }
+		public OutputStream getOutputStream () { return out; }
+		public void close () throws IOException { channel.close(); }
+	}
+
+	/*
+	 * Unix domain socket channels cannot tell how many bytes are waiting
+	 * to be read, so available() reads them ahead, without blocking; the
+	 * next reads return them first. Worker's ack batching relies on it.
+	 */
+	static class ChannelInputStream extends InputStream {
+
+		private SocketChannel channel;
+		private byte [] one = new byte[1];
+
+		/* Read ahead by available(); empty unless it found something */
+		private ByteBuffer ahead;
+		private boolean eof;
+
+		ChannelInputStream (SocketChannel channel) {
+			this.channel = channel;
+			ahead = ByteBuffer.allocate(8192);
+			ahead.flip();
+			eof = false;
+		}
+
+		public int read () throws IOException {
+			int n = read(one, 0, 1);
+			return (n < 0) ? -1 : (one[0] & 0xff);
+		}
+
+		public int read (byte [] b, int offset, int length) throws IOException {
+			if (length == 0)
+				return 0;
+			if (ahead.hasRemaining()) {
+				int n = Math.min(length, ahead.remaining());
+				ahead.get(b, offset, n);
+				return n;
+			}
+			if (eof)
+				return -1;
+			int n = channel.read(ByteBuffer.wrap(b, offset, length));
+			return n; /* Blocking, so never 0 */
+		}
+
+		/*
+		 * Only the thread that reads may call it. It briefly makes the 
+		 * channel non-blocking, so a write from another thread at the same
+		 * time may have to try more than once (see ChannelOutputStream).
+		 */
+		public int available () throws IOException {
+			if (ahead.hasRemaining() || eof)
+				return ahead.remaining();
+			ahead.clear();
+			int n;
+			channel.configureBlocking(false);
+			try {
+				n = channel.read(ahead);
+			} finally {
+				channel.configureBlocking(true);
+				ahead.flip();
+			}
+			if (n < 0)
+				eof = true; /* For the next read() */
+			return ahead.remaining();
+		}
+
+		public void close () throws IOException {
+			channel.close();
+		}
+	}
+
+	static class ChannelOutputStream extends OutputStream {
+
+		private SocketChannel channel;
+		private byte [] one = new byte[1];
+
+		ChannelOutputStream (SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public void write (int b) throws IOException {
+			one[0] = (byte) b;
+			write(one, 0, 1);
+		}
+
+		public void write (byte [] b, int offset, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+			while (buffer.hasRemaining())
+				if (channel.write(buffer) == 0) /* Non-blocking, for now */
+					Thread.onSpinWait();
+		}
+
+		public void close () throws IOException {
+			channel.close();
+		}
+	}
+}
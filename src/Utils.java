@@ -11,18 +11,122 @@ public class Utils {
 
 	public static final int INFINITY = -1;
 	
+	/* Destination of a message sent to a group (see Process.multicast) */
+	public static final int MULTICAST = -2;
+	
 	public static final String REGISTRAR_ADDR = "localhost";
 	public static final int    REGISTRAR_PORT = 6667;
 	public static final int    FAULTMNGR_PORT = 6665;
+	
+	/* The Registrar's metrics, at http://localhost:6666/metrics (see Metrics);
+	 * or none, with java -Dco347.metrics.port=0 Registrar ...
+	 */
+	public static final int METRICS_PORT = Integer.getInteger("co347.metrics.port", 6666);
+	
+	/* If false (java -Dco347.services=false ...), the Registrar starts no
+	 * FaultManager, PeriodicPrinter or Metrics, e.g. when benchmarked
+	 */
+	public static final boolean SERVICES = 
+		Boolean.parseBoolean(System.getProperty("co347.services", "true"));
 
 	public static final String SEPARATOR = "<|>";
 	
 	public static final boolean DEBUG = true;
 	
+	/* Output, written by a background thread (see Log).
+	 *
+	 * LOG sets levels, for all components and then for some, e.g.
+	 * java -Dco347.log=INFO,Relay=WARN Registrar ...; by default, all
+	 * output is written if DEBUG is set. Lines wait in a buffer of
+	 * LOG_BUFFER; when it is full, callers block or, if LOG_DROP is set,
+	 * their lines are dropped (and counted). They go to standard output,
+	 * or to LOG_FILE if set.
+	 */
+	public static final String LOG = System.getProperty("co347.log");
+	public static final int LOG_BUFFER = Integer.getInteger("co347.log.buffer", 8192);
+	public static final boolean LOG_DROP = Boolean.getBoolean("co347.log.drop");
+	public static final String LOG_FILE = System.getProperty("co347.log.file");
+	
 	public static final boolean SELFMSGENABLED = false;
 	
 	public static final int MSG_QUEUE_SIZE = 100;
 	
+	/* If true (java -Dco347.nio=true Registrar ...), the Registrar serves
+	 * all processes from a few selector loops rather than two threads each.
+	 */
+	public static final boolean NIO = Boolean.getBoolean("co347.nio");
+	public static final int EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+	
+	/* Threads used to (re)compute the routing oracle */
+	public static final int ORACLE_THREADS = 
+		Integer.getInteger("co347.oracle.threads", Runtime.getRuntime().availableProcessors());
+	
+	/* If true (java -Dco347.oracle.lazy=true Registrar ...), the oracle only
+	 * computes the rows it is asked about, and keeps at most ORACLE_CACHE
+	 * of them (see RoutingOracle.row). It is lazy anyway for more than
+	 * ORACLE_EAGER_MAX processes, whose V x V matrices would not fit in
+	 * memory (3 x 2 bytes per entry, about 1.6GB at 16384).
+	 */
+	public static final boolean ORACLE_LAZY = Boolean.getBoolean("co347.oracle.lazy");
+	public static final int ORACLE_EAGER_MAX = Integer.getInteger("co347.oracle.eager.max", 16384);
+	public static final int ORACLE_CACHE = Integer.getInteger("co347.oracle.cache", 1024);
+	
+	/* Where the oracle keeps its V x V matrices: "heap", "direct" (off-heap)
+	 * or "mapped" (a memory-mapped temporary file); see Matrix.
+	 */
+	public static final String ORACLE_STORE = System.getProperty("co347.oracle.store", "heap");
+	
+	/* If true (java -Dco347.binary=true ...), a process asks the Registrar
+	 * for length-prefixed binary frames instead of text (see Message.encode).
+	 */
+	public static final boolean BINARY = Boolean.getBoolean("co347.binary");
+	
+	/* Maximum number of messages a process may send before their acks 
+	 * arrive (see Process.unicastAsync)
+	 */
+	public static final int WINDOW = Integer.getInteger("co347.window", 64);
+	
+	/* The Registrar writes queued messages to a process in batches of at
+	 * most BATCH messages or BATCH_BYTES bytes, each flushed within about
+	 * BATCH_DELAY usec of its first message (see Worker.MessageHandler)
+	 */
+	public static final int BATCH = Integer.getInteger("co347.batch", 256);
+	public static final int BATCH_BYTES = Integer.getInteger("co347.batch.bytes", 64 * 1024);
+	public static final int BATCH_DELAY = Integer.getInteger("co347.batch.delay", 1000);
+	
+	/* A Listener holds at most MAILBOX_SIZE messages that its process has
+	 * yet to receive, and hands them over RECEIVE_BATCH at a time
+	 */
+	public static final int MAILBOX_SIZE = Integer.getInteger("co347.mailbox", 4096);
+	public static final int RECEIVE_BATCH = Integer.getInteger("co347.receive.batch", 256);
+	
+	/* If true (java -Dco347.virtual=true ...), blocking tasks run on virtual
+	 * threads, where available (see Threads)
+	 */
+	public static final boolean VIRTUAL = Boolean.getBoolean("co347.virtual");
+	
+	/* "tcp" or "unix" (see Transport); Unix domain sockets live in SOCKET_DIR */
+	public static final String TRANSPORT = System.getProperty("co347.transport", "tcp");
+	public static final String SOCKET_DIR = 
+		System.getProperty("co347.socket.dir", System.getProperty("java.io.tmpdir"));
+	
+	/* Simulations (see Simulator): the seed of every random number generator;
+	 * and the virtual time (msec) at which a run ends, or 0 to run until
+	 * there is nothing left to do
+	 */
+	public static final long SEED = Long.getLong("co347.seed", 0L);
+	public static final long SIM_TIME = Long.getLong("co347.sim.time", 60000L);
+	
+	/* Pending connections a server socket accepts; the Registrar's accepts
+	 * at least n
+	 */
+	public static final int BACKLOG = 128;
+	
+	/* If set (java -Dco347.ready=pids/P0.ready Registrar ...), the Registrar
+	 * creates this file once it accepts connections (see sysmanager.sh)
+	 */
+	public static final String READY = System.getProperty("co347.ready");
+	
 	public static enum Accuracy {
 		DEFAULT, /* STRONG or EVENTUALLY_STRONG; difference determined by GAUSSIAN */
 		WEAK,
@@ -37,6 +141,9 @@ public class Utils {
 	/* Interacting with the routing oracle */
 	public static final String CHECK_COST = "CSP"; /* Check shortest paths */
 	public static final String CHECK_NEXT = "CRT"; /* Check next best hops */
+	/* The same, for tables sent in chunks; see RoutingTable */
+	public static final String CHECK_COST_TABLE = "CST";
+	public static final String CHECK_NEXT_TABLE = "CNT";
 	
 	/* Configuration parameters */
 	public static final Accuracy accuracy = Accuracy.DEFAULT;
@@ -79,23 +186,13 @@ public class Utils {
 		return priority;
 	}
 	
-	public static synchronized void out (String s) {
-		
-		if (DEBUG) {
-			String x = String.format("[DBG] %s%n", s);
-			System.out.print(x);
-			System.out.flush();
-		}
+	/* Only queues `s`; see Log */
+	public static void out (String s) {
+		Log.OUT.info(s);
 	}
 
-	public static synchronized void out (int id, String s) {
-		
-		/* Printf assumes there are no more than 999 processes */
-		if (DEBUG) {
-			String x = String.format("[%03d] %s%n", id, s);
-			System.out.print(x);
-			System.out.flush();
-		}
+	public static void out (int id, String s) {
+		Log.OUT.info(id, s);
 	}
 	
 	/* For measurement purposes */
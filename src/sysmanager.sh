@@ -1,6 +1,9 @@
 #!/bin/bash
 #
-# ./sysmanager.sh [start|stop|clear]
+# ./sysmanager.sh [start|emulate|simulate|stop|clear]
+#
+# `emulate` runs the Registrar and all processes in one JVM (see Emulator)
+# `simulate` does too, in virtual time and in the foreground (see Simulator)
 #
 # Copyright (c) 2013-2014, Imperial College London
 # All rights reserved.
@@ -15,7 +18,11 @@ VERBOSE=true
 # log files, one per process.
 LOG=true
 
-USAGE="./sysmanager.sh [start|stop|clear] [class] [#instances] [topology]"
+# Options passed to every JVM, e.g.
+# JAVA_OPTS="-Dco347.nio=true" ./sysmanager.sh start ...
+JAVA_OPTS=${JAVA_OPTS:-""}
+
+USAGE="./sysmanager.sh [start|emulate|simulate|stop|clear] [class] [#instances] [topology]"
 
 daemonize () {
 	name=$1
@@ -55,6 +62,17 @@ check () {
 	) 
 }
 
+# Waits until process $name is ready (see Utils.READY), or has exited
+ready () {
+	name=$1
+	$VERBOSE && echo "[DBG] waiting for ${name}"
+	while [ ! -f "${PIDDIR}"/${name}.ready ]; do
+		check ${name} || return 1
+		sleep 0.05
+	done
+	return 0
+}
+
 start () {
 	$VERBOSE && echo "[DBG] start ${N} instances of class ${P}"
 	i=1
@@ -62,7 +80,7 @@ start () {
 		name="P${i}"
 		# You can append arguments args[3], args[4],
 		# and so on after ${N}.
-		daemonize ${name} java ${P} ${name} ${i} ${N} $@
+		daemonize ${name} java ${JAVA_OPTS} ${P} ${name} ${i} ${N} $@
 		let i++
 	done
 }
@@ -102,7 +120,7 @@ stop () {
 if [ $# -lt 1 ]; then
 	echo $USAGE && exit 1
 else
-	if [ $1 == "start" ]; then
+	if [ $1 == "start" ] || [ $1 == "emulate" ] || [ $1 == "simulate" ]; then
 		
 		if [ $# -lt 4 ]; then # Check number of arguments.
 			echo $USAGE
@@ -154,10 +172,28 @@ case ${C} in
 		echo "error: Registrar already running"
 		exit 1
 	fi
-	daemonize "P0" java Registrar $N $F
-	sleep 1
+	rm -f "${PIDDIR}"/P0.ready
+	daemonize "P0" java ${JAVA_OPTS} -Dco347.ready="${PIDDIR}"/P0.ready Registrar $N $F
+	ready "P0"
+	if [ $? -ne 0 ]; then
+		echo "error: Registrar failed to start"
+		exit 1
+	fi
 	
 	start $@ ;;
+	"emulate")
+	
+	[ -d "${PIDDIR}" ] || mkdir -p "${PIDDIR}"
+	
+	check "P0"
+	if [ $? -eq 0 ]; then
+		echo "error: Registrar already running"
+		exit 1
+	fi
+	daemonize "P0" java ${JAVA_OPTS} Emulator $P $N $F $@ ;;
+	"simulate")
+	
+	java ${JAVA_OPTS} Simulator $P $N $F $@ ;;
 	"stop" )
 	stop ;;
 	"clear")